@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+
+/**
+ * Embedded Derby database shared by the benchmarks.
+ */
+final class BenchmarkDatabase {
+
+    static final String ENTITY_NAME = "BenchmarkPerson";
+    static final String PERSISTENCE_UNIT = "benchmarkPersistenceUnit";
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Creates the tables and inserts persons with ids from 1 to {@code rows}.
+     */
+    static EntityManagerFactory create(int rows) {
+        final EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT);
+        final EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createQuery("DELETE FROM " + ENTITY_NAME).executeUpdate();
+            for (long id = 1; id <= rows; id++) {
+                em.persist(person(id));
+                if (id % 1000 == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+        return emf;
+    }
+
+    static BenchmarkPerson person(long id) {
+        return new BenchmarkPerson(id, "Person " + id, (int) (id % 100));
+    }
+
+    static CommunicationEntity entity(long id) {
+        return PersistenceEntityConverter.toCommunicationEntity(ENTITY_NAME, person(id));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jnosql.communication.Settings;
+import org.eclipse.jnosql.communication.semistructured.DatabaseManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup cost of the driver with each {@link PersistenceConfigurations#BOOTSTRAP bootstrap mode}: the time until
+ * the database manager factory is created, which blocks the application startup, and the time until the first
+ * query completes. Each fork measures cold single shots, as the persistence unit is created once at startup.
+ */
+@Fork(5)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PersistenceBootstrapBenchmark {
+
+    @Param({"eager", "lazy", "background"})
+    public String bootstrap;
+
+    private DatabaseManagerFactory factory;
+
+    @Benchmark
+    public Object startup() {
+        factory = createFactory();
+        return factory.apply(BenchmarkDatabase.PERSISTENCE_UNIT);
+    }
+
+    @Benchmark
+    public long startupToFirstQuery() {
+        factory = createFactory();
+        return factory.apply(BenchmarkDatabase.PERSISTENCE_UNIT).count(BenchmarkDatabase.ENTITY_NAME);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        factory.close();
+    }
+
+    private DatabaseManagerFactory createFactory() {
+        return new PersistenceDbConfiguration().apply(Settings.of(Map.of(
+                PersistenceConfigurations.PERSISTENCE_UNIT.get(), BenchmarkDatabase.PERSISTENCE_UNIT,
+                PersistenceConfigurations.BOOTSTRAP.get(), bootstrap)));
+    }
+}
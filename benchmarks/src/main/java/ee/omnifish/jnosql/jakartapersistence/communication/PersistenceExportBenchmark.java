@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.Element;
+import org.eclipse.jnosql.communication.semistructured.SelectQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exports of {@link PersistenceDatabaseManager#export} compared with writing CSV in application code from
+ * the stream of {@link PersistenceDatabaseManager#select}, from a table with {@value #ROWS} rows. Rows are written
+ * to a channel that discards them. Run with the GC profiler to compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PersistenceExportBenchmark {
+
+    static final int ROWS = 10_000;
+
+    @Param({"100", "10000"})
+    private int resultSize;
+
+    private EntityManagerFactory emf;
+    private PersistenceDatabaseManager manager;
+    private SelectQuery query;
+    private final DiscardingChannel channel = new DiscardingChannel();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        emf = BenchmarkDatabase.create(ROWS);
+        manager = new PersistenceDatabaseManager(emf);
+        query = SelectQuery.builder("id", "name", "age").from(BenchmarkDatabase.ENTITY_NAME)
+                .where(CriteriaCondition.gt("id", 0L))
+                .limit(resultSize)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public long exportCsv() {
+        return manager.export(query, channel, PersistenceExportFormat.CSV);
+    }
+
+    @Benchmark
+    public long exportBinary() {
+        return manager.export(query, channel, PersistenceExportFormat.BINARY);
+    }
+
+    /**
+     * Writes the same CSV as {@link #exportCsv()}, without quoting, from communication entities.
+     *
+     * @return Number of written bytes
+     */
+    @Benchmark
+    public long selectAsCsv() {
+        return channel.write("id,name,age\r\n") + manager.select(query)
+                .mapToLong(entity -> channel.write(entity.elements().stream()
+                        .map(Element::get)
+                        .map(String::valueOf)
+                        .collect(Collectors.joining(",", "", "\r\n"))))
+                .sum();
+    }
+
+    private static final class DiscardingChannel implements WritableByteChannel {
+
+        long write(String text) {
+            return write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            final int bytes = source.remaining();
+            source.position(source.limit());
+            return bytes;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.DeleteQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk inserts with {@link PersistenceDatabaseManager#insert(Iterable)}. The score is the number of inserted entities
+ * per second. Inserted rows are deleted after each iteration, so that the table doesn't grow between iterations.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PersistenceInsertBenchmark {
+
+    static final int BATCH = 100;
+
+    private EntityManagerFactory emf;
+    private PersistenceDatabaseManager manager;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        emf = BenchmarkDatabase.create(0);
+        manager = new PersistenceDatabaseManager(emf);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteInserted() {
+        manager.delete(DeleteQuery.builder().from(BenchmarkDatabase.ENTITY_NAME)
+                .where(CriteriaCondition.gt("id", 0L))
+                .build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.close();
+        emf.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Iterable<CommunicationEntity> insert() {
+        final List<CommunicationEntity> entities = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            entities.add(BenchmarkDatabase.entity(++nextId));
+        }
+        return manager.insert(entities);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.data.Sort;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+
+/**
+ * A query that aggregates attributes of entities in the database, optionally in groups, executed by
+ * {@link PersistenceDatabaseManager#aggregate(PersistenceAggregateQuery)}.
+ * <p>
+ * Each result contains an element for each group attribute, named by the attribute, followed by an element
+ * for each aggregate, named by its alias. The having condition and sorts can refer to both group attributes
+ * and aliases of aggregates. A query with group attributes and no aggregates selects distinct values of the group
+ * attributes.
+ */
+public final class PersistenceAggregateQuery {
+
+    /**
+     * Aggregate functions of the Criteria API
+     */
+    public enum Function {
+        COUNT, COUNT_DISTINCT, SUM, AVG, MIN, MAX
+    }
+
+    /**
+     * @param function Aggregate function
+     * @param attribute Aggregated attribute, or null to count entities
+     * @param alias Name of the result element
+     */
+    public record Aggregate(Function function, String attribute, String alias) {
+
+        public Aggregate {
+            Objects.requireNonNull(function, "function is required");
+            Objects.requireNonNull(alias, "alias is required");
+            if (attribute == null && function != Function.COUNT) {
+                throw new IllegalArgumentException("Attribute is required for " + function);
+            }
+        }
+    }
+
+    private final String name;
+    private final List<String> groupBy;
+    private final List<Aggregate> aggregates;
+    private final CriteriaCondition condition;
+    private final CriteriaCondition having;
+    private final List<Sort<?>> sorts;
+    private final long limit;
+
+    private PersistenceAggregateQuery(Builder builder) {
+        this.name = builder.name;
+        this.groupBy = List.copyOf(builder.groupBy);
+        this.aggregates = List.copyOf(builder.aggregates);
+        this.condition = builder.condition;
+        this.having = builder.having;
+        this.sorts = List.copyOf(builder.sorts);
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder(String entityName) {
+        return new Builder(Objects.requireNonNull(entityName, "entityName is required"));
+    }
+
+    /**
+     * @return Name of the entity
+     */
+    public String name() {
+        return name;
+    }
+
+    public List<String> groupBy() {
+        return groupBy;
+    }
+
+    public List<Aggregate> aggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @return Condition on entities, applied before grouping
+     */
+    public Optional<CriteriaCondition> condition() {
+        return Optional.ofNullable(condition);
+    }
+
+    /**
+     * @return Condition on groups, applied after aggregation
+     */
+    public Optional<CriteriaCondition> having() {
+        return Optional.ofNullable(having);
+    }
+
+    public List<Sort<?>> sorts() {
+        return sorts;
+    }
+
+    /**
+     * @return Maximum number of results, or 0 if not limited
+     */
+    public long limit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "PersistenceAggregateQuery{" + "name=" + name + ", groupBy=" + groupBy + ", aggregates=" + aggregates
+                + ", condition=" + condition + ", having=" + having + ", sorts=" + sorts + ", limit=" + limit + '}';
+    }
+
+    public static final class Builder {
+
+        private final String name;
+        private final List<String> groupBy = new ArrayList<>();
+        private final List<Aggregate> aggregates = new ArrayList<>();
+        private CriteriaCondition condition;
+        private CriteriaCondition having;
+        private final List<Sort<?>> sorts = new ArrayList<>();
+        private long limit;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder groupBy(String... attributes) {
+            groupBy.addAll(List.of(attributes));
+            return this;
+        }
+
+        /**
+         * Counts entities
+         */
+        public Builder count(String alias) {
+            return aggregate(Function.COUNT, null, alias);
+        }
+
+        public Builder countDistinct(String attribute, String alias) {
+            return aggregate(Function.COUNT_DISTINCT, attribute, alias);
+        }
+
+        public Builder sum(String attribute, String alias) {
+            return aggregate(Function.SUM, attribute, alias);
+        }
+
+        public Builder avg(String attribute, String alias) {
+            return aggregate(Function.AVG, attribute, alias);
+        }
+
+        public Builder min(String attribute, String alias) {
+            return aggregate(Function.MIN, attribute, alias);
+        }
+
+        public Builder max(String attribute, String alias) {
+            return aggregate(Function.MAX, attribute, alias);
+        }
+
+        public Builder aggregate(Function function, String attribute, String alias) {
+            aggregates.add(new Aggregate(function, attribute, alias));
+            return this;
+        }
+
+        public Builder where(CriteriaCondition condition) {
+            this.condition = Objects.requireNonNull(condition, "condition is required");
+            return this;
+        }
+
+        public Builder having(CriteriaCondition having) {
+            this.having = Objects.requireNonNull(having, "having is required");
+            return this;
+        }
+
+        public Builder sort(Sort<?>... sorts) {
+            this.sorts.addAll(List.of(sorts));
+            return this;
+        }
+
+        public Builder limit(long limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit must not be negative: " + limit);
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException If there are neither aggregates nor group attributes, or if aliases of
+         *                               aggregates are not unique
+         */
+        public PersistenceAggregateQuery build() {
+            if (aggregates.isEmpty() && groupBy.isEmpty()) {
+                throw new IllegalStateException("At least one aggregate or group attribute is required");
+            }
+            if (aggregates.stream().map(Aggregate::alias).distinct().count() < aggregates.size()) {
+                throw new IllegalStateException("Aliases of aggregates must be unique: " + aggregates);
+            }
+            return new PersistenceAggregateQuery(this);
+        }
+    }
+}
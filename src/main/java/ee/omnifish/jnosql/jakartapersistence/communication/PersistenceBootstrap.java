@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Creates the persistence units of a factory and the lookups derived from their metamodel once, when they are first
+ * needed, or in the background if the factory {@link #warmUp warms them up}. Threads that need them while they are
+ * being created wait for the creation to complete, and all threads then share them without locking. If the creation
+ * fails, uses fail with the same exception until a retry delay elapses, and the next use then tries to create them
+ * again. The delay starts at {@link #INITIAL_RETRY_DELAY} and doubles with each failure, up to
+ * {@link #MAX_RETRY_DELAY}, so that a database that is down isn't hit by every operation.
+ */
+final class PersistenceBootstrap implements AutoCloseable {
+
+    /**
+     * When the persistence units are created.
+     */
+    enum Mode {
+        /**
+         * When the factory is created, so that errors in the configuration are reported at startup
+         */
+        EAGER("eager"),
+        /**
+         * When the first operation is executed
+         */
+        LAZY("lazy"),
+        /**
+         * In the background, in parallel with the rest of the application startup, or when the first operation
+         * is executed if that's sooner
+         */
+        BACKGROUND("background");
+
+        private final String configuration;
+
+        Mode(String configuration) {
+            this.configuration = configuration;
+        }
+
+        /**
+         * @throws IllegalArgumentException If no mode has the name
+         */
+        static Mode of(String configuration) {
+            for (Mode mode : values()) {
+                if (mode.configuration.equals(configuration)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("The value of " + PersistenceConfigurations.BOOTSTRAP.get()
+                    + " must be one of eager, lazy, background, but was " + configuration);
+        }
+    }
+
+    static final Duration INITIAL_RETRY_DELAY = Duration.ofSeconds(1);
+    static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(1);
+
+    private final String unitName;
+    private final Supplier<PersistenceUnits> units;
+    private final LongSupplier nanoClock;
+
+    private volatile Bootstrapped bootstrapped;
+    private RuntimeException failure;
+    private long retryDelayNanos;
+    private long retryAt;
+    private boolean closed;
+
+    /**
+     * @param unitName Name of the primary persistence unit
+     * @param units Creates the persistence units
+     */
+    PersistenceBootstrap(String unitName, Supplier<PersistenceUnits> units) {
+        this(unitName, units, System::nanoTime);
+    }
+
+    PersistenceBootstrap(String unitName, Supplier<PersistenceUnits> units, LongSupplier nanoClock) {
+        this.unitName = unitName;
+        this.units = units;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return Bootstrap of units that are already created
+     */
+    static PersistenceBootstrap of(PersistenceUnits units) {
+        final PersistenceBootstrap bootstrap = new PersistenceBootstrap(units.primary().getName(), () -> units);
+        bootstrap.get();
+        return bootstrap;
+    }
+
+    /**
+     * @return Name of the primary persistence unit, available without creating the units
+     */
+    String unitName() {
+        return unitName;
+    }
+
+    /**
+     * Starts creating the persistence units with the executor. A failure is reported when the units are used.
+     */
+    void warmUp(Executor executor) {
+        executor.execute(() -> {
+            try {
+                get();
+            } catch (RuntimeException e) {
+                // thrown again to operations until the retry delay elapses
+            }
+        });
+    }
+
+    /**
+     * @return Whether the persistence units are created
+     */
+    boolean isCreated() {
+        return bootstrapped != null;
+    }
+
+    /**
+     * @return The persistence units, created by this thread if they are not created yet
+     */
+    PersistenceUnits units() {
+        return get().units();
+    }
+
+    /**
+     * @return Entity types of the persistence units, created by this thread if they are not created yet
+     */
+    PersistenceEntityTypes entityTypes() {
+        return get().entityTypes();
+    }
+
+    /**
+     * Closes the persistence units if they were created, after waiting for their creation if it's in progress.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (bootstrapped != null) {
+            bootstrapped.units().close();
+        }
+    }
+
+    private Bootstrapped get() {
+        final Bootstrapped created = bootstrapped;
+        return created != null ? created : bootstrap();
+    }
+
+    private synchronized Bootstrapped bootstrap() {
+        if (closed) {
+            throw new IllegalStateException("The persistence unit " + unitName + " is closed");
+        }
+        if (bootstrapped != null) {
+            return bootstrapped;
+        }
+        final long now = nanoClock.getAsLong();
+        if (failure != null && now - retryAt < 0) {
+            throw failure;
+        }
+        try {
+            final PersistenceUnits created = units.get();
+            bootstrapped = new Bootstrapped(created, PersistenceEntityTypes.of(created.entities()));
+            failure = null;
+            return bootstrapped;
+        } catch (RuntimeException e) {
+            failure = e;
+            retryDelayNanos = retryDelayNanos == 0
+                    ? INITIAL_RETRY_DELAY.toNanos()
+                    : Math.min(retryDelayNanos * 2, MAX_RETRY_DELAY.toNanos());
+            retryAt = now + retryDelayNanos;
+            throw e;
+        }
+    }
+
+    private record Bootstrapped(PersistenceUnits units, PersistenceEntityTypes entityTypes) {
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * An index of entities, embeddables and repositories, written at compile time by {@link PersistenceIndexProcessor}
+ * to {@value #RESOURCE} in each archive. Each line of the index contains the kind of the class and its binary name
+ * separated by a colon, e.g. {@code entity:com.example.Book}.
+ */
+final class PersistenceClassIndex {
+
+    static final String RESOURCE = "META-INF/jnosql-jakarta-persistence.idx";
+
+    private static final Logger LOGGER = Logger.getLogger(PersistenceClassIndex.class.getName());
+
+    /**
+     * Kinds of indexed classes
+     */
+    enum Kind {
+        /**
+         * Classes annotated with {@link jakarta.nosql.Entity}
+         */
+        ENTITY("entity"),
+        /**
+         * Classes annotated with {@link jakarta.nosql.Embeddable}
+         */
+        EMBEDDABLE("embeddable"),
+        /**
+         * Interfaces annotated with {@link jakarta.data.repository.Repository}
+         */
+        REPOSITORY("repository");
+
+        private final String prefix;
+
+        Kind(String prefix) {
+            this.prefix = prefix;
+        }
+
+        String entry(String className) {
+            return prefix + ':' + className;
+        }
+
+        private static Optional<Kind> ofPrefix(String prefix) {
+            for (Kind kind : values()) {
+                if (kind.prefix.equals(prefix)) {
+                    return Optional.of(kind);
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private final Map<Kind, Set<String>> classNames;
+    private final Set<Path> archives;
+    private final ClassLoader classLoader;
+
+    private PersistenceClassIndex(Map<Kind, Set<String>> classNames, Set<Path> archives, ClassLoader classLoader) {
+        this.classNames = classNames;
+        this.archives = archives;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Reads and merges the indexes of all archives visible to the class loader.
+     *
+     * @return The index, or an empty optional if no archive contains an index
+     */
+    static Optional<PersistenceClassIndex> load(ClassLoader classLoader) {
+        final Map<Kind, Set<String>> classNames = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            classNames.put(kind, new LinkedHashSet<>());
+        }
+        final List<URL> resources;
+        try {
+            resources = Collections.list(classLoader.getResources(RESOURCE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot find " + RESOURCE, e);
+        }
+        if (resources.isEmpty()) {
+            return Optional.empty();
+        }
+        final Set<Path> archives = new HashSet<>();
+        for (URL resource : resources) {
+            read(resource, classNames);
+            archive(resource).ifPresent(archives::add);
+        }
+        return Optional.of(new PersistenceClassIndex(classNames, Set.copyOf(archives), classLoader));
+    }
+
+    /**
+     * @param classpathElement Path of a directory or a jar file on the classpath
+     * @return Whether the classpath element contains an index, so its classes are indexed
+     */
+    boolean indexes(String classpathElement) {
+        try {
+            return archives.contains(Path.of(classpathElement).toAbsolutePath().normalize());
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads the indexed classes of the given kind. Classes that cannot be loaded, e.g. because they were removed
+     * after the index had been written, are skipped.
+     */
+    List<Class<?>> classes(Kind kind) {
+        final List<Class<?>> classes = new ArrayList<>();
+        for (String className : classNames.get(kind)) {
+            try {
+                classes.add(Class.forName(className, false, classLoader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOGGER.fine(() -> "Skipping the indexed class " + className + " that cannot be loaded: " + e);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @return Path of the directory or the jar file that contains the resource, e.g. {@code /app/lib/books.jar}
+     *         for {@code jar:file:/app/lib/books.jar!/META-INF/jnosql-jakarta-persistence.idx}, or an empty optional
+     *         if it's not in the file system, e.g. in a nested jar
+     */
+    private static Optional<Path> archive(URL resource) {
+        String archive = resource.toString();
+        archive = archive.substring(0, archive.length() - RESOURCE.length());
+        if (archive.startsWith("jar:") && archive.endsWith("!/")) {
+            archive = archive.substring("jar:".length(), archive.length() - "!/".length());
+        }
+        try {
+            return Optional.of(Path.of(new URI(archive)).toAbsolutePath().normalize());
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void read(URL resource, Map<Kind, Set<String>> classNames) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                final int separator = line.indexOf(':');
+                if (line.isEmpty() || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                final String className = line.substring(separator + 1);
+                Kind.ofPrefix(line.substring(0, separator))
+                        .ifPresent(kind -> classNames.get(kind).add(className));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + resource, e);
+        }
+    }
+}
@@ -17,9 +17,9 @@
 package ee.omnifish.jnosql.jakartapersistence.communication;
 
 
-import static java.util.Collections.unmodifiableSet;
-import static java.util.stream.Collectors.toUnmodifiableSet;
+import static java.util.stream.Collectors.toUnmodifiableMap;
 
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceClassIndex.Kind;
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ScanResult;
 import jakarta.data.repository.BasicRepository;
@@ -28,129 +28,171 @@ import jakarta.data.repository.DataRepository;
 import jakarta.data.repository.Repository;
 import jakarta.nosql.Embeddable;
 import jakarta.nosql.Entity;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 import org.eclipse.jnosql.mapping.NoSQLRepository;
+import org.eclipse.jnosql.mapping.core.config.MicroProfileSettings;
 import org.eclipse.jnosql.mapping.metadata.ClassScanner;
 
 /**
  * Scanner classes that will load entities with both Entity and Embeddable
  * annotations and repositories: interfaces that extend DataRepository
  * and has the Repository annotation.
+ * <p>
+ * Classes of archives that contain an index written by {@link PersistenceIndexProcessor} are read from the index,
+ * only the other archives are scanned.
  */
 enum PersistenceClassScannerSingleton implements ClassScanner {
 
     INSTANCE;
 
+    private static final String PERSISTENCE_XML = "META-INF/persistence.xml";
+
     private final Set<Class<?>> entities;
     private final Set<Class<?>> repositories;
     private final Set<Class<?>> embeddables;
     private final Set<Class<?>> customRepositories;
+    private final Set<Class<?>> standardRepositories;
+    /**
+     * Supported repositories by each interface they directly extend
+     */
+    private final Map<Class<?>, Set<Class<?>>> repositoriesByInterface;
 
 
     PersistenceClassScannerSingleton() {
-        entities = new HashSet<>();
-        embeddables = new HashSet<>();
-        repositories = new HashSet<>();
-        customRepositories = new HashSet<>();
-
         Logger logger = Logger.getLogger(PersistenceClassScannerSingleton.class.getName());
+        final ClassLoader classLoader = classLoader();
+        final Optional<PersistenceClassIndex> index = PersistenceClassIndex.load(classLoader);
+        index.ifPresent(i -> logger.fine("Reading entities, embeddables and repositories from " + PersistenceClassIndex.RESOURCE));
         logger.fine("Starting scan class to find entities, embeddable and repositories.");
-        try (ScanResult result = new ClassGraph().enableAllInfo().scan()) {
-            var notSupportedRepositories = loadNotSupportedRepositories(result);
-            logger.warning(() -> "The following repositories are not supported: " + notSupportedRepositories);
-            this.entities.addAll(loadEntities(result));
-            this.embeddables.addAll(loadEmbeddable(result));
-            this.repositories.addAll(loadRepositories(result));
-            this.customRepositories.addAll(loadCustomRepositories(result));
-            notSupportedRepositories.forEach(this.repositories::remove);
+        final boolean persistenceUnitArchives = MicroProfileSettings.INSTANCE
+                .get(PersistenceConfigurations.SCAN_PERSISTENCE_UNIT_ARCHIVES.get(), Boolean.class)
+                .orElse(false);
+        final Map<Kind, List<Class<?>>> classes = scan(classLoader,
+                classpathElement -> index.isPresent() && index.get().indexes(classpathElement), persistenceUnitArchives);
+        index.ifPresent(i -> addIndexed(i, classes));
+        this.entities = Set.copyOf(classes.get(Kind.ENTITY));
+        this.embeddables = Set.copyOf(classes.get(Kind.EMBEDDABLE));
+        final Set<Class<?>> supportedRepositories = new HashSet<>();
+        final Set<Class<?>> custom = new HashSet<>();
+        final Set<Class<?>> standard = new HashSet<>();
+        final Map<Class<?>, Set<Class<?>>> byInterface = new HashMap<>();
+        final List<Class<?>> notSupportedRepositories = new ArrayList<>();
+        for (Class<?> repository : classes.get(Kind.REPOSITORY)) {
+            if (!DataRepository.class.isAssignableFrom(repository)) {
+                custom.add(repository);
+            } else if (PersistenceRepositoryFilter.INSTANCE.test(repository)) {
+                supportedRepositories.add(repository);
+                for (Class<?> repositoryInterface : repository.getInterfaces()) {
+                    byInterface.computeIfAbsent(repositoryInterface, i -> new HashSet<>()).add(repository);
+                    if (isStandardRepositoryInterface(repositoryInterface)) {
+                        standard.add(repository);
+                    }
+                }
+            } else {
+                notSupportedRepositories.add(repository);
+            }
         }
+        this.repositories = Set.copyOf(supportedRepositories);
+        this.customRepositories = Set.copyOf(custom);
+        this.standardRepositories = Set.copyOf(standard);
+        this.repositoriesByInterface = byInterface.entrySet().stream()
+                .collect(toUnmodifiableMap(Map.Entry::getKey, entry -> Set.copyOf(entry.getValue())));
+        logger.warning(() -> "The following repositories are not supported: " + notSupportedRepositories);
         logger.fine(String.format("Finished the class scan with entities %d, embeddables %d and repositories: %d"
                 , entities.size(), embeddables.size(), repositories.size()));
 
     }
 
+    /**
+     * Scans the classpath of the class loader for entities, embeddables and interfaces annotated with
+     * {@link Repository}. Only class and annotation info is read, without fields and methods. ClassGraph scans
+     * the classpath elements in parallel.
+     *
+     * @param indexed Whether the classpath element with the given path contains the {@link PersistenceClassIndex index},
+     *                it's skipped then because its classes are read from the index
+     * @param persistenceUnitArchives Whether only classpath elements that contain {@value #PERSISTENCE_XML} are
+     *                                scanned, if there are any, see
+     *                                {@link PersistenceConfigurations#SCAN_PERSISTENCE_UNIT_ARCHIVES}
+     */
+    static Map<Kind, List<Class<?>>> scan(ClassLoader classLoader, Predicate<String> indexed,
+            boolean persistenceUnitArchives) {
+        final ClassGraph classGraph = new ClassGraph()
+                .overrideClassLoaders(classLoader)
+                .enableAnnotationInfo()
+                .ignoreClassVisibility();
+        if (persistenceUnitArchives && classLoader.getResource(PERSISTENCE_XML) != null) {
+            classGraph.acceptClasspathElementsContainingResourcePath(PERSISTENCE_XML);
+        }
+        classGraph.filterClasspathElements(classpathElement -> !indexed.test(classpathElement));
+        try (ScanResult result = classGraph.scan()) {
+            final Map<Kind, List<Class<?>>> classes = new EnumMap<>(Kind.class);
+            classes.put(Kind.ENTITY, result.getClassesWithAnnotation(Entity.class).loadClasses());
+            classes.put(Kind.EMBEDDABLE, result.getClassesWithAnnotation(Embeddable.class).loadClasses());
+            classes.put(Kind.REPOSITORY, result.getClassesWithAnnotation(Repository.class).getInterfaces().loadClasses());
+            return classes;
+        }
+    }
+
+    private static boolean isStandardRepositoryInterface(Class<?> repositoryInterface) {
+        return repositoryInterface == CrudRepository.class
+                || repositoryInterface == BasicRepository.class
+                || repositoryInterface == NoSQLRepository.class
+                || repositoryInterface == DataRepository.class;
+    }
+
+    private static void addIndexed(PersistenceClassIndex index, Map<Kind, List<Class<?>>> classes) {
+        for (Kind kind : Kind.values()) {
+            final Set<Class<?>> merged = new LinkedHashSet<>(index.classes(kind));
+            merged.addAll(classes.get(kind));
+            classes.put(kind, List.copyOf(merged));
+        }
+    }
+
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : PersistenceClassScannerSingleton.class.getClassLoader();
+    }
+
 
     @Override
     public Set<Class<?>> entities() {
-        return unmodifiableSet(entities);
+        return entities;
     }
 
-  @Override
+    @Override
     public Set<Class<?>> repositories() {
-        return unmodifiableSet(repositories);
+        return repositories;
     }
 
-
-   @Override
+    @Override
     public Set<Class<?>> embeddables() {
-        return unmodifiableSet(embeddables);
+        return embeddables;
     }
 
     @Override
     public <T extends DataRepository<?, ?>> Set<Class<?>> repositories(Class<T> filter) {
         Objects.requireNonNull(filter, "filter is required");
-        return repositories.stream().filter(filter::isAssignableFrom)
-                .filter(c -> Arrays.asList(c.getInterfaces()).contains(filter))
-                .collect(toUnmodifiableSet());
+        return repositoriesByInterface.getOrDefault(filter, Set.of());
     }
 
-
     @Override
     public Set<Class<?>> repositoriesStandard() {
-        return repositories.stream()
-                .filter(c -> {
-                    List<Class<?>> interfaces = Arrays.asList(c.getInterfaces());
-                    return interfaces.contains(CrudRepository.class)
-                            || interfaces.contains(BasicRepository.class)
-                            || interfaces.contains(NoSQLRepository.class)
-                            || interfaces.contains(DataRepository.class);
-                }).collect(Collectors.toUnmodifiableSet());
+        return standardRepositories;
     }
 
     @Override
     public Set<Class<?>> customRepositories() {
         return customRepositories;
     }
-
-
-    @SuppressWarnings("rawtypes")
-    private static List<Class<DataRepository>> loadRepositories(ScanResult scan) {
-        return scan.getClassesWithAnnotation(Repository.class)
-                .getInterfaces()
-                .filter(c -> c.implementsInterface(DataRepository.class))
-                .loadClasses(DataRepository.class)
-                .stream().filter(PersistenceRepositoryFilter.INSTANCE)
-                .toList();
-    }
-
-    private static List<Class<?>> loadCustomRepositories(ScanResult scan) {
-        return scan.getClassesWithAnnotation(Repository.class)
-                .getInterfaces()
-                .filter(c -> !c.implementsInterface(DataRepository.class))
-                .loadClasses().stream().toList();
-    }
-
-    @SuppressWarnings("rawtypes")
-    private static List<Class<DataRepository>> loadNotSupportedRepositories(ScanResult scan) {
-        return scan.getClassesWithAnnotation(Repository.class)
-                .getInterfaces()
-                .filter(c -> c.implementsInterface(DataRepository.class))
-                .loadClasses(DataRepository.class)
-                .stream().filter(PersistenceRepositoryFilter.INSTANCE.negate())
-                .toList();
-    }
-
-    private static List<Class<?>> loadEmbeddable(ScanResult scan) {
-        return scan.getClassesWithAnnotation(Embeddable.class).loadClasses();
-    }
-
-    private static List<Class<?>> loadEntities(ScanResult scan) {
-        return scan.getClassesWithAnnotation(Entity.class).loadClasses();
-    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.util.function.Supplier;
+
+/**
+ * Configuration keys of the Jakarta Persistence driver, read from the {@link org.eclipse.jnosql.communication.Settings}
+ * passed to {@link PersistenceDbConfiguration#apply(org.eclipse.jnosql.communication.Settings)}.
+ */
+public enum PersistenceConfigurations implements Supplier<String> {
+
+    /**
+     * Name of the persistence unit
+     */
+    PERSISTENCE_UNIT("jnosql.column.database"),
+    /**
+     * Number of entities written by bulk insert and update before the persistence context is flushed and cleared.
+     * It's also used as the JDBC batch size of the persistence provider. Defaults to 100.
+     */
+    BATCH_SIZE("jnosql.jakarta.persistence.batch.size"),
+    /**
+     * Maximum number of prepared queries kept in the query cache. Zero disables the cache. Defaults to
+     * {@value PersistenceQueryCache#DEFAULT_MAX_SIZE}.
+     */
+    QUERY_CACHE_SIZE("jnosql.jakarta.persistence.query.cache.size"),
+    /**
+     * Whether delete queries remove entities one by one with {@link jakarta.persistence.EntityManager#remove(Object)}
+     * if the entity has relationships, element collections or remove lifecycle callbacks, which a bulk delete statement
+     * would bypass. Defaults to false, all delete queries are executed as a single bulk delete statement.
+     */
+    DELETE_REMOVE_FALLBACK("jnosql.jakarta.persistence.delete.remove-fallback"),
+    /**
+     * JDBC fetch size passed to the persistence provider as a query hint for select queries. Defaults to 0,
+     * which leaves the fetch size to the provider and the JDBC driver.
+     */
+    FETCH_SIZE("jnosql.jakarta.persistence.fetch.size"),
+    /**
+     * If greater than 0, select queries for whole entities read results lazily in windows of this size, each with
+     * a new entity manager, instead of reading all results at once. Defaults to 0.
+     */
+    STREAM_WINDOW_SIZE("jnosql.jakarta.persistence.stream.window.size"),
+    /**
+     * An {@link java.util.concurrent.Executor} instance that runs asynchronous operations of
+     * {@link PersistenceDatabaseManager}. Defaults to an executor that starts a new virtual thread for each task
+     * on Java 21 and newer, or a cached pool of daemon threads on older Java versions.
+     */
+    ASYNC_EXECUTOR("jnosql.jakarta.persistence.async.executor"),
+    /**
+     * Comma separated names of entities that are cached by the driver when they are found by id. Select queries
+     * with only an id equality condition are always executed with {@link jakarta.persistence.EntityManager#find},
+     * which may use the shared cache of the persistence provider. Defaults to no entities.
+     */
+    ENTITY_CACHE_ENTITIES("jnosql.jakarta.persistence.entity.cache.entities"),
+    /**
+     * Maximum number of entities in the driver's entity cache. Defaults to
+     * {@value PersistenceOptions#DEFAULT_ENTITY_CACHE_SIZE}.
+     */
+    ENTITY_CACHE_SIZE("jnosql.jakarta.persistence.entity.cache.size"),
+    /**
+     * Time to live of entities in the driver's entity cache, in seconds. Defaults to
+     * {@value PersistenceOptions#DEFAULT_ENTITY_CACHE_TTL}.
+     */
+    ENTITY_CACHE_TTL("jnosql.jakarta.persistence.entity.cache.ttl"),
+    /**
+     * Operations that take at least this number of milliseconds are logged by {@link PersistenceMetrics} as
+     * warnings. Defaults to 0, slow operations are not logged.
+     */
+    SLOW_OPERATION_THRESHOLD("jnosql.jakarta.persistence.metrics.slow-threshold"),
+    /**
+     * Enables write-behind of single entity inserts and updates if set to a positive number. Single writes
+     * from all threads and all database managers of a factory are then collected and committed together in one transaction when this number of entities
+     * is collected, or after {@link #WRITE_BEHIND_DELAY} at the latest. A write returns, or its completion stage
+     * completes, only after its group is committed. Defaults to 0, each single write is committed separately.
+     */
+    WRITE_BEHIND_SIZE("jnosql.jakarta.persistence.write-behind.size"),
+    /**
+     * Maximum number of milliseconds a single write waits for other writes to commit together when write-behind
+     * is {@link #WRITE_BEHIND_SIZE enabled}. Defaults to {@value PersistenceOptions#DEFAULT_WRITE_BEHIND_DELAY}.
+     */
+    WRITE_BEHIND_DELAY("jnosql.jakarta.persistence.write-behind.delay"),
+    /**
+     * Name of the attribute that stores the time when an entity inserted with a time to live expires. Expired
+     * entities are excluded from selects and counts, so the column should be indexed. Entities without this
+     * attribute don't support a time to live. Defaults to no attribute.
+     */
+    TTL_ATTRIBUTE("jnosql.jakarta.persistence.ttl.attribute"),
+    /**
+     * Number of seconds between runs of the background job that deletes expired entities, 0 disables the job.
+     * Defaults to {@value PersistenceOptions#DEFAULT_TTL_PURGE_INTERVAL}.
+     */
+    TTL_PURGE_INTERVAL("jnosql.jakarta.persistence.ttl.purge.interval"),
+    /**
+     * Maximum number of expired entities deleted in a single transaction. Defaults to
+     * {@value PersistenceOptions#DEFAULT_TTL_PURGE_BATCH_SIZE}.
+     */
+    TTL_PURGE_BATCH_SIZE("jnosql.jakarta.persistence.ttl.purge.batch-size"),
+    /**
+     * Comma separated names of persistence units that are read-only replicas of the {@link #PERSISTENCE_UNIT}.
+     * Selects and counts are then executed in a replica, writes always in the primary unit. Replicas may lag behind
+     * the primary unit, so entities may not be selected right after they are written. Defaults to no replicas.
+     */
+    REPLICA_UNITS("jnosql.jakarta.persistence.replica.units"),
+    /**
+     * How a replica is chosen for a read: {@code round-robin} uses the replicas in turns, {@code least-outstanding}
+     * uses the replica with the fewest reads in progress. Defaults to {@code round-robin}.
+     */
+    REPLICA_BALANCING("jnosql.jakarta.persistence.replica.balancing"),
+    /**
+     * Comma separated entity names with the persistence units that store them, in the form
+     * {@code Entity=unit}, e.g. {@code Order=orders,Invoice=billing}. Entities that are not listed are stored
+     * in the {@link #PERSISTENCE_UNIT}. Writes of entities from different units are not committed atomically.
+     * Defaults to no entities.
+     */
+    ENTITY_UNITS("jnosql.jakarta.persistence.entity.units"),
+    /**
+     * When the entity manager factories are created: {@code eager} when the database manager factory is created,
+     * {@code lazy} when the first operation is executed, or {@code background} in a background thread started
+     * when the database manager factory is created, so that they are created in parallel with the rest of the
+     * application startup. Defaults to {@code eager}.
+     */
+    BOOTSTRAP("jnosql.jakarta.persistence.bootstrap"),
+    /**
+     * Size in bytes of the buffer that {@link PersistenceDatabaseManager#export exports} encode rows into before
+     * writing them to the channel. Defaults to {@value PersistenceOptions#DEFAULT_EXPORT_BUFFER_SIZE}.
+     */
+    EXPORT_BUFFER_SIZE("jnosql.jakarta.persistence.export.buffer-size"),
+    /**
+     * Maximum number of rows that {@link PersistenceDatabaseManager#export exports} read with a single query, each
+     * in a new entity manager. Defaults to {@value PersistenceOptions#DEFAULT_EXPORT_WINDOW_SIZE}.
+     */
+    EXPORT_WINDOW_SIZE("jnosql.jakarta.persistence.export.window-size"),
+    /**
+     * Whether the classpath scan for entities, embeddables and repositories is limited to archives that contain
+     * {@code META-INF/persistence.xml}, if any archive contains it. Read from MicroProfile Config instead of
+     * the settings of a database manager factory, as the classpath is scanned before the factory is created.
+     * Defaults to false, all archives without a {@link PersistenceIndexProcessor build-time index} are scanned.
+     */
+    SCAN_PERSISTENCE_UNIT_ARCHIVES("jnosql.jakarta.persistence.scan.persistence-unit-archives");
+
+    private final String configuration;
+
+    PersistenceConfigurations(String configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public String get() {
+        return configuration;
+    }
+}
@@ -15,38 +15,201 @@
  */
 package ee.omnifish.jnosql.jakartapersistence.communication;
 
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryConverter.ID_ELEMENT_NAME;
+
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceOperationListener.Operation;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryCache.PreparedQuery;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryCache.QueryShape;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryConverter.QueryParameter;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceWriteBehind.PendingWrite;
+import jakarta.data.Direction;
+import jakarta.data.Sort;
+import jakarta.data.page.CursoredPage;
+import jakarta.data.page.PageRequest;
+import jakarta.data.page.impl.CursoredPageRecord;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityGraph;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.Graph;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PreRemove;
+import jakarta.persistence.Query;
+import jakarta.persistence.Tuple;
 import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CommonAbstractCriteria;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
 import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
 import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.Attribute.PersistentAttributeType;
 import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.eclipse.jnosql.communication.Value;
+import java.util.stream.StreamSupport;
+import org.eclipse.jnosql.communication.Condition;
+import org.eclipse.jnosql.communication.ValueUtil;
 import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
 import org.eclipse.jnosql.communication.semistructured.DatabaseManager;
 import org.eclipse.jnosql.communication.semistructured.DeleteQuery;
 import org.eclipse.jnosql.communication.semistructured.Element;
 import org.eclipse.jnosql.communication.semistructured.SelectQuery;
 
 /**
+ * A database manager that executes operations with Jakarta Persistence.
+ * <p>
+ * Each operation uses its own entity manager, created from the entity manager factory and closed when the operation
+ * completes, so a single database manager can be used by many threads concurrently and persistence contexts
+ * don't outlive operations. Streams of entities read in windows use a new entity manager for each window.
+ * <p>
+ * Asynchronous variants of select, count and insert run on the executor configured with
+ * {@link PersistenceConfigurations#ASYNC_EXECUTOR}, so independent queries can be executed in parallel.
+ * <p>
+ * Reads, i.e. selects, counts and aggregations, are executed in a {@link PersistenceConfigurations#REPLICA_UNITS
+ * replica} of the persistence unit if it has replicas, writes always in the primary unit. Entities can be stored
+ * in other {@link PersistenceConfigurations#ENTITY_UNITS persistence units}, which are then used for all operations
+ * with those entities.
  *
  * @author Ondro Mihalyi
  */
 public class PersistenceDatabaseManager implements DatabaseManager {
 
-    private final EntityManager em;
-    private String persistenceUnitName;
+    private static final String SELECT_QUERY = "select";
+    private static final String PROJECTION_QUERY = "projection";
+    private static final String COUNT_QUERY = "count";
+    private static final String CURSOR_QUERY = "cursor";
+    private static final String LOAD_GRAPH_HINT = "jakarta.persistence.loadgraph";
+    private static final String DELETE_QUERY = "delete";
+    private static final String AGGREGATE_QUERY = "aggregate";
+    private static final String EXPORT_QUERY = "export";
+    private static final Logger LOGGER = Logger.getLogger(PersistenceDatabaseManager.class.getName());
+
+    private final PersistenceBootstrap bootstrap;
+    private final String persistenceUnitName;
+    private final PersistenceQueryCache queryCache;
+    private final PersistenceEntityCache entityCache;
+    private final PersistenceOptions options;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final PersistenceOperationListener listener;
+    private final PersistenceWriteBehind writeBehind;
+    private final boolean ownsWriteBehind;
+    private final PersistenceExpiry expiry;
+    private final ScheduledExecutorService purger;
 
-    private final Map<String, EntityType<?>> entityTypesByName = new HashMap<>();
+    private final Map<Class<?>, Boolean> entityTypesRequiringRemoval = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<String>> fetchPlans = new ConcurrentHashMap<>();
+
+    public PersistenceDatabaseManager(EntityManagerFactory emf) {
+        this(emf, new PersistenceQueryCache(), PersistenceOptions.defaults());
+    }
 
+    /**
+     * @param em Entity manager of the persistence unit. Operations create their own entity managers with its entity
+     *           manager factory, the entity manager itself isn't used or closed by this database manager
+     * @param persistenceUnitName Name of this database manager
+     * @deprecated Operations don't share an entity manager anymore, use
+     *             {@link #PersistenceDatabaseManager(EntityManagerFactory)} instead
+     */
+    @Deprecated(forRemoval = true)
     public PersistenceDatabaseManager(EntityManager em, String persistenceUnitName) {
-        this.em = em;
-        this.persistenceUnitName = persistenceUnitName;
-        cacheEntityTypes();
+        this(bootstrap(persistenceUnitName, em.getEntityManagerFactory()), new PersistenceQueryCache(),
+                PersistenceOptions.defaults());
+    }
+
+    PersistenceDatabaseManager(EntityManagerFactory emf, PersistenceQueryCache queryCache, PersistenceOptions options) {
+        this(PersistenceBootstrap.of(PersistenceUnits.of(emf)), queryCache, options);
+    }
+
+    private PersistenceDatabaseManager(PersistenceBootstrap bootstrap, PersistenceQueryCache queryCache,
+            PersistenceOptions options) {
+        this(bootstrap, queryCache, options.newEntityCache(), options, options.executor().orElse(null),
+                PersistenceOperationListeners.load(new PersistenceMetrics(queryCache, options.slowOperationThreshold())),
+                null);
+    }
+
+    /**
+     * @param executor Executor of asynchronous operations, or null to create a default executor, which is shut down
+     *                 when this database manager is closed
+     * @param listener Listener notified about each operation
+     */
+    PersistenceDatabaseManager(EntityManagerFactory emf, PersistenceQueryCache queryCache,
+            PersistenceEntityCache entityCache, PersistenceOptions options, Executor executor,
+            PersistenceOperationListener listener) {
+        this(PersistenceBootstrap.of(PersistenceUnits.of(emf)), queryCache, entityCache, options, executor, listener,
+                null);
+    }
+
+    /**
+     * @param bootstrap Persistence units to read and write entities, created when first needed. The name of
+     *                  the primary unit is the name of this manager. Shared by all database managers of the units
+     * @param shared Database manager of the same persistence units whose write-behind collects the writes of this
+     *               manager and which purges expired entities in the background, or null if this manager does it
+     *               itself. Only one of the database managers that share persistence units should do it, so that
+     *               writes of all of them are grouped together
+     */
+    PersistenceDatabaseManager(PersistenceBootstrap bootstrap,
+            PersistenceQueryCache queryCache, PersistenceEntityCache entityCache, PersistenceOptions options,
+            Executor executor, PersistenceOperationListener listener, PersistenceDatabaseManager shared) {
+        this.ownedExecutor = executor == null ? PersistenceOptions.newDefaultExecutor() : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+        this.bootstrap = bootstrap;
+        this.persistenceUnitName = bootstrap.unitName();
+        this.queryCache = queryCache;
+        this.entityCache = entityCache;
+        this.listener = listener;
+        this.options = options;
+        this.ownsWriteBehind = shared == null && options.writeBehindSize() > 0;
+        if (shared != null) {
+            this.writeBehind = shared.writeBehind;
+        } else {
+            this.writeBehind = ownsWriteBehind
+                    ? new PersistenceWriteBehind(options.writeBehindSize(), options.writeBehindDelay(), this.executor,
+                            this::writeGroup)
+                    : null;
+        }
+        this.expiry = options.newExpiry();
+        this.purger = shared == null ? newPurger() : null;
     }
 
     @Override
@@ -54,86 +217,1187 @@ public class PersistenceDatabaseManager implements DatabaseManager {
         return persistenceUnitName;
     }
 
+    /**
+     * Persists the entity in its own transaction. If {@link PersistenceConfigurations#WRITE_BEHIND_SIZE write-behind}
+     * is enabled, the entity is committed together with single writes of other threads instead, and this method
+     * blocks until the group is committed.
+     */
     @Override
     public CommunicationEntity insert(CommunicationEntity ce) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+        Objects.requireNonNull(ce, "entity is required");
+        if (writeBehind != null) {
+            return join(writeBehind.submit(ce, false));
+        }
+        return insert(List.of(ce)).iterator().next();
     }
 
+    /**
+     * Persists the entity in its own transaction with the time to live stored in the
+     * {@link PersistenceConfigurations#TTL_ATTRIBUTE expiry attribute}.
+     *
+     * @throws UnsupportedOperationException If the entity doesn't have the expiry attribute
+     */
     @Override
-    public CommunicationEntity insert(CommunicationEntity ce, Duration drtn) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    public CommunicationEntity insert(CommunicationEntity ce, Duration ttl) {
+        Objects.requireNonNull(ce, "entity is required");
+        return insert(List.of(ce), ttl).iterator().next();
     }
 
+    /**
+     * Persists all entities in a single transaction. The persistence context is flushed and cleared after each
+     * {@link PersistenceConfigurations#BATCH_SIZE batch} of entities, so that it doesn't grow with the number of
+     * entities and the provider can send each batch to the database as a JDBC batch.
+     */
     @Override
-    public Iterable<CommunicationEntity> insert(Iterable<CommunicationEntity> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    public Iterable<CommunicationEntity> insert(Iterable<CommunicationEntity> entities) {
+        Objects.requireNonNull(entities, "entities is required");
+        final List<CommunicationEntity> entityList = toList(entities);
+        return observe(Operation.INSERT, entityName(entityList), null, () -> writeInBatches(entityList, entity -> false, null),
+                List::size);
     }
 
+    /**
+     * Persists all entities in a single transaction, in batches like {@link #insert(Iterable)}, with the time
+     * to live stored in the {@link PersistenceConfigurations#TTL_ATTRIBUTE expiry attribute}. Expired entities are
+     * not selected or counted, and they are deleted by {@link #purgeExpired()}.
+     *
+     * @throws UnsupportedOperationException If an entity doesn't have the expiry attribute
+     */
     @Override
-    public Iterable<CommunicationEntity> insert(Iterable<CommunicationEntity> itrbl, Duration drtn) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    public Iterable<CommunicationEntity> insert(Iterable<CommunicationEntity> entities, Duration ttl) {
+        Objects.requireNonNull(entities, "entities is required");
+        Objects.requireNonNull(ttl, "ttl is required");
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        }
+        final List<CommunicationEntity> entityList = toList(entities);
+        return observe(Operation.INSERT, entityName(entityList), null, () -> writeInBatches(entityList, entity -> false, ttl),
+                List::size);
     }
 
+    /**
+     * Merges the entity in its own transaction, or with write-behind like {@link #insert(CommunicationEntity)}.
+     */
     @Override
     public CommunicationEntity update(CommunicationEntity ce) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+        Objects.requireNonNull(ce, "entity is required");
+        if (writeBehind != null) {
+            return join(writeBehind.submit(ce, true));
+        }
+        return update(List.of(ce)).iterator().next();
     }
 
+    /**
+     * Merges all entities in a single transaction, in batches like {@link #insert(Iterable)}.
+     */
     @Override
-    public Iterable<CommunicationEntity> update(Iterable<CommunicationEntity> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    public Iterable<CommunicationEntity> update(Iterable<CommunicationEntity> entities) {
+        Objects.requireNonNull(entities, "entities is required");
+        final List<CommunicationEntity> entityList = toList(entities);
+        return observe(Operation.UPDATE, entityName(entityList), null,
+                () -> writeInBatches(entityList, entity -> true, null), List::size);
     }
 
+    /**
+     * Deletes matching entities with a single bulk delete statement. If
+     * {@link PersistenceConfigurations#DELETE_REMOVE_FALLBACK enabled}, entities that have relationships,
+     * element collections or remove callbacks are instead loaded and removed one by one, in batches, so that
+     * cascades and callbacks are applied.
+     */
     @Override
     public void delete(DeleteQuery dq) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+        Objects.requireNonNull(dq, "query is required");
+        if (!dq.columns().isEmpty()) {
+            throw new UnsupportedOperationException("Deleting individual columns is not supported: " + dq.columns());
+        }
+        final EntityType<?> entityType = findEntityType(dq.name());
+        observe(Operation.DELETE, dq.name(), dq, () -> {
+            if (options.deleteRemoveFallback() && requiresEntityRemoval(entityType)) {
+                return inTransaction(entityType, em -> removeEntities(em, dq));
+            }
+            return inTransaction(entityType, em -> {
+                final PreparedQuery<CriteriaDelete<?>> preparedQuery = preparedQuery(em,
+                        QueryShape.of(DELETE_QUERY, dq.name(), dq.condition(), List.of()),
+                        criteriaBuilder -> prepareDelete(criteriaBuilder, entityType, dq));
+                return preparedQuery.createDelete(em, dq.condition()).executeUpdate();
+            });
+        }, Integer::longValue);
+        entityCache.invalidate(dq.name());
     }
 
+    /**
+     * Selects whole entities if the query has no columns. If it has columns, only the requested attributes are
+     * selected as tuples and returned as an element for each column, without creating and managing entities.
+     * If any of the columns is a collection, whole entities are selected.
+     * <p>
+     * If {@link PersistenceConfigurations#STREAM_WINDOW_SIZE} is set, whole entities are read in windows like
+     * with {@link #select(SelectQuery, int)}.
+     * <p>
+     * Whole entities selected only by an id equality condition are found with {@link EntityManager#find}, so they
+     * can be served by the shared cache of the provider, or by the
+     * {@link PersistenceConfigurations#ENTITY_CACHE_ENTITIES entity cache} of the driver.
+     * <p>
+     * Attributes in the {@link PersistenceFetchPlan fetch plan} of the entity, and collections requested as columns,
+     * are loaded together with whole entities.
+     */
     @Override
     public Stream<CommunicationEntity> select(SelectQuery sq) {
+        if (sq.columns().isEmpty() && options.streamWindowSize() > 0 && idOfFind(sq).isEmpty()) {
+            return select(sq, options.streamWindowSize());
+        }
+        return observe(Operation.SELECT, sq.name(), sq, () -> selectList(sq), List::size).stream();
+    }
+
+    /**
+     * Selects whole entities and reads them lazily, in windows of the given size, as the stream advances.
+     * Each window is read by a separate entity manager, so processed entities are detached and can be
+     * garbage collected. Closing the stream stops reading further windows.
+     *
+     * @param sq The query. Columns of the query are ignored
+     * @param windowSize Maximum number of entities read by a single query
+     * @return Stream of entities
+     */
+    public Stream<CommunicationEntity> select(SelectQuery sq, int windowSize) {
+        Objects.requireNonNull(sq, "query is required");
         final String entityName = sq.name();
+        return selectWindows(sq, windowSize)
+                .map(persistenceEntity -> PersistenceEntityConverter.toCommunicationEntity(entityName, persistenceEntity));
+    }
+
+    /**
+     * Selects whole entities like {@link #select(SelectQuery)}, but returns the persistence entities directly instead
+     * of wrapping each of them in a communication entity. This avoids allocating a communication entity, an element
+     * and a value for each entity, and converting them back to the entity in the mapping layer.
+     *
+     * @param entityClass Class of the entities
+     * @param sq The query, without columns
+     * @return Stream of entities
+     * @throws IllegalArgumentException If the query selects columns
+     */
+    public <T> Stream<T> selectEntities(Class<T> entityClass, SelectQuery sq) {
+        Objects.requireNonNull(entityClass, "entityClass is required");
+        Objects.requireNonNull(sq, "query is required");
+        if (!sq.columns().isEmpty()) {
+            throw new IllegalArgumentException("Whole entities must be selected, but the query selects columns "
+                    + sq.columns());
+        }
+        if (options.streamWindowSize() > 0 && idOfFind(sq).isEmpty()) {
+            return selectWindows(sq, options.streamWindowSize()).map(entityClass::cast);
+        }
+        return observe(Operation.SELECT, sq.name(), sq, () -> selectEntityList(sq), List::size).stream()
+                .map(entityClass::cast);
+    }
+
+    private Stream<Object> selectWindows(SelectQuery query, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        final String entityName = query.name();
         final EntityType<?> entityType = findEntityType(entityName);
-        final CriteriaQuery<Object> criteriaQuery = em.getCriteriaBuilder().createQuery();
-        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
-        criteriaQuery.select(from);
+        final SelectQuery sq = expiry.withoutExpired(query, entityType);
+        final SingularAttribute<?, ?> idAttribute = entityType.hasSingleIdAttribute()
+                ? PersistenceEntityConverter.idAttribute(entityType)
+                : null;
+        final long start = System.nanoTime();
+        final LongAdder rows = new LongAdder();
+        final PersistenceWindowSpliterator spliterator = new PersistenceWindowSpliterator(sq, windowSize,
+                idAttribute == null ? null : idAttribute.getName(),
+                entity -> PersistenceEntityConverter.getAttribute(entity, idAttribute),
+                windowQuery -> inEntityManager(entityType, em -> entityQuery(em, windowQuery).getResultList()),
+                failure -> listener.operationCompleted(Operation.SELECT, entityName, sq, System.nanoTime() - start,
+                        rows.sum(), failure));
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close)
+                .peek(persistenceEntity -> rows.increment());
+    }
+
+    /**
+     * Aggregates entities in the database with the aggregate functions of the Criteria API, so that only the
+     * results of the aggregation are transferred instead of whole entities. Each result is returned as
+     * a communication entity with an element for each group attribute and aggregate, without creating entities.
+     *
+     * @param query The aggregate query
+     * @return Stream of results, one for each group, or a single result if the query has no group attributes
+     */
+    public Stream<CommunicationEntity> aggregate(PersistenceAggregateQuery query) {
+        Objects.requireNonNull(query, "query is required");
+        final List<String> columns = new ArrayList<>(query.groupBy());
+        query.aggregates().forEach(aggregate -> columns.add(aggregate.alias()));
+        final Optional<CriteriaCondition> conditions = query.having()
+                .map(having -> query.condition().map(condition -> CriteriaCondition.and(condition, having)).orElse(having))
+                .or(query::condition);
+        final EntityType<?> entityType = findEntityType(query.name());
+        return observe(Operation.SELECT, query.name(), query, () -> inEntityManager(entityType, em -> {
+            final PreparedQuery<CriteriaQuery<Tuple>> preparedQuery = preparedQuery(em, aggregateShape(query),
+                    criteriaBuilder -> prepareAggregate(criteriaBuilder, query));
+            final TypedQuery<Tuple> typedQuery = preparedQuery.createQuery(em, conditions);
+            if (query.limit() > 0) {
+                typedQuery.setMaxResults(Math.toIntExact(query.limit()));
+            }
+            return withHints(typedQuery).getResultList();
+        }).stream()
+                .map(tuple -> PersistenceEntityConverter.toCommunicationEntity(query.name(), columns, tuple))
+                .toList(), List::size).stream();
+    }
 
-        final TypedQuery<Object> query = em.createQuery(criteriaQuery);
-        return query.getResultStream()
-                .map(persistenceEntity -> CommunicationEntity.of(entityName, List.of(
-                        Element.of("1", Value.of(persistenceEntity))
-                )));
+    /**
+     * Executes a JPQL select query, e.g. an aggregation with constructs that {@link PersistenceAggregateQuery}
+     * doesn't support, and returns each result as a communication entity with an element for each select item.
+     * Elements are named by the position of their select item, starting with {@code "0"}, regardless of aliases,
+     * because providers don't return the aliases of JPQL select items consistently.
+     *
+     * @param entityName Name of the returned communication entities, also used to record metrics
+     * @param jpql The JPQL query
+     * @param parameters Values of named parameters of the query
+     * @return Stream of results
+     */
+    public Stream<CommunicationEntity> aggregate(String entityName, String jpql, Map<String, ?> parameters) {
+        Objects.requireNonNull(entityName, "entityName is required");
+        Objects.requireNonNull(jpql, "jpql is required");
+        Objects.requireNonNull(parameters, "parameters is required");
+        return observe(Operation.SELECT, entityName, jpql, () -> units().read(entityName, emf -> inEntityManager(emf, em -> {
+            final Query query = em.createQuery(jpql);
+            parameters.forEach(query::setParameter);
+            final List<?> results = withHints(query).getResultList();
+            return results;
+        })).stream()
+                .map(result -> PersistenceEntityConverter.toCommunicationEntity(entityName,
+                        result instanceof Object[] values ? values : new Object[] {result}))
+                .toList(), List::size).stream();
     }
 
+    /**
+     * Selects a page of whole entities for cursor-based pagination. Instead of skipping rows with an offset, the
+     * query continues after (or before) the cursor with a {@link PersistenceQueryConverter#seekCondition seek
+     * condition} on the sort keys, so reading a page doesn't get slower with the number of preceding rows if
+     * the sort keys are indexed. Values of the sort keys are selected together with the entities to create
+     * the cursors of the page.
+     * <p>
+     * If the query has no sorts, entities are sorted by the id. The sort keys should identify entities uniquely,
+     * e.g. by ending with the id. Case insensitive sorts are not supported.
+     */
     @Override
-    public long count(String string) {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
+    public CursoredPage<CommunicationEntity> selectCursor(SelectQuery query, PageRequest pageRequest) {
+        Objects.requireNonNull(query, "query is required");
+        Objects.requireNonNull(pageRequest, "pageRequest is required");
+        return observe(Operation.SELECT, query.name(), query, () -> readCursorPage(query, pageRequest),
+                CursoredPage::numberOfElements);
+    }
+
+    private CursoredPage<CommunicationEntity> readCursorPage(SelectQuery query, PageRequest pageRequest) {
+        final String entityName = query.name();
+        final List<Sort<?>> sorts = query.sorts().isEmpty()
+                ? List.of(Sort.asc(PersistenceEntityConverter.idAttribute(findEntityType(entityName)).getName()))
+                : query.sorts();
+        if (sorts.stream().anyMatch(Sort::ignoreCase)) {
+            throw new UnsupportedOperationException("Case insensitive sorts are not supported with cursors: " + sorts);
+        }
+        final PageRequest.Mode mode = pageRequest.mode();
+        final boolean previous = mode == PageRequest.Mode.CURSOR_PREVIOUS;
+        final List<Sort<?>> readSorts = previous
+                ? sorts.stream().<Sort<?>>map(sort -> Sort.of(sort.property(),
+                        sort.isAscending() ? Direction.DESC : Direction.ASC, false)).toList()
+                : sorts;
+        final Optional<CriteriaCondition> seek = pageRequest.cursor()
+                .map(cursor -> PersistenceQueryConverter.seekCondition(readSorts, cursor));
+        final SelectQuery.QueryBuilder builder = SelectQuery.builder().from(entityName).sort(readSorts.toArray(Sort<?>[]::new));
+        query.condition()
+                .map(condition -> seek.map(s -> CriteriaCondition.and(condition, s)).orElse(condition))
+                .or(() -> seek)
+                .ifPresent(builder::where);
+        final SelectQuery seekQuery = withoutExpired(builder.build());
+
+        final int size = pageRequest.size();
+        final List<Tuple> rows = inEntityManager(findEntityType(entityName), em -> {
+            final PreparedQuery<CriteriaQuery<Tuple>> preparedQuery = preparedQuery(em,
+                    QueryShape.of(CURSOR_QUERY, entityName, seekQuery.condition(), readSorts),
+                    criteriaBuilder -> prepareCursor(criteriaBuilder, seekQuery));
+            final TypedQuery<Tuple> typedQuery = preparedQuery.createQuery(em, seekQuery.condition());
+            if (mode == PageRequest.Mode.OFFSET && pageRequest.page() > 1) {
+                typedQuery.setFirstResult(Math.toIntExact((pageRequest.page() - 1) * size));
+            }
+            return withHints(typedQuery).setMaxResults(size + 1).getResultList();
+        });
+        final boolean more = rows.size() > size;
+        final List<Tuple> pageRows = new ArrayList<>(more ? rows.subList(0, size) : rows);
+        if (previous) {
+            Collections.reverse(pageRows);
+        }
+        final List<CommunicationEntity> content = pageRows.stream()
+                .map(row -> PersistenceEntityConverter.toCommunicationEntity(entityName, row.get(0)))
+                .toList();
+        final List<PageRequest.Cursor> cursors = pageRows.stream()
+                .map(row -> PageRequest.Cursor.forKey(Arrays.copyOfRange(row.toArray(), 1, sorts.size() + 1)))
+                .toList();
+        if (content.isEmpty()) {
+            return new CursoredPageRecord<>(content, cursors, total(query, pageRequest), pageRequest, null, null);
+        }
+        final boolean hasNext = previous || more;
+        final boolean hasPrevious = previous ? more : mode != PageRequest.Mode.OFFSET || pageRequest.page() > 1;
+        return new CursoredPageRecord<>(content, cursors, total(query, pageRequest), pageRequest,
+                hasNext ? pageRequest.afterCursor(cursors.get(cursors.size() - 1)) : null,
+                hasPrevious ? pageRequest.beforeCursor(cursors.get(0)) : null);
     }
 
+    @Override
+    public long count(String entityName) {
+        return count(SelectQuery.builder().from(entityName).build());
+    }
+
+    /**
+     * Counts entities matching the query in the database, without loading them. Sorts, skip and limit
+     * of the query are ignored.
+     */
+    @Override
+    public long count(SelectQuery query) {
+        final SelectQuery sq = withoutExpired(query);
+        return observe(Operation.COUNT, sq.name(), sq, () -> inEntityManager(findEntityType(sq.name()), em -> {
+            final PreparedQuery<CriteriaQuery<Long>> preparedQuery = preparedQuery(em,
+                    QueryShape.of(COUNT_QUERY, sq.name(), sq.condition(), List.of()),
+                    criteriaBuilder -> prepareCount(criteriaBuilder, sq));
+            return preparedQuery.<Long>createQuery(em, sq.condition()).getSingleResult();
+        }),
+                count -> count);
+    }
+
+    /**
+     * Exports the results of the query to the channel, without creating entities or communication entities.
+     * Only the columns of the query are selected, or all basic attributes of the entity, the id first, if the query
+     * has no columns. Rows are read as arrays of values and encoded straight into a reusable buffer in the format,
+     * which is written to the channel whenever it's full.
+     * <p>
+     * Rows are read in windows of at most {@link PersistenceConfigurations#EXPORT_WINDOW_SIZE} rows, each with
+     * a new entity manager, so that neither the provider nor the JDBC driver holds all results in memory. Like
+     * {@link PersistenceConfigurations#STREAM_WINDOW_SIZE windowed streams}, a query without sorts is read in
+     * the order of the id, each window after the last id of the previous window, and other queries by offset.
+     * Windows are separate queries, so rows changed during the export may be exported twice or not at all.
+     * <p>
+     * The channel isn't closed.
+     *
+     * @return Number of exported rows
+     * @throws IllegalArgumentException If a column is a collection
+     * @throws UncheckedIOException If writing to the channel fails
+     */
+    public long export(SelectQuery query, WritableByteChannel channel, PersistenceExportFormat format) {
+        Objects.requireNonNull(query, "query is required");
+        Objects.requireNonNull(channel, "channel is required");
+        Objects.requireNonNull(format, "format is required");
+        final EntityType<?> entityType = findEntityType(query.name());
+        final SelectQuery sq = expiry.withoutExpired(query, entityType);
+        final List<String> columns = sq.columns().isEmpty() ? basicAttributes(entityType) : sq.columns();
+        final String idName = entityType.hasSingleIdAttribute()
+                ? PersistenceEntityConverter.idAttribute(entityType).getName()
+                : null;
+        final List<String> selected = new ArrayList<>(columns);
+        if (idName != null && !columns.contains(idName)) {
+            // read to continue after the last row, but not exported
+            selected.add(idName);
+        }
+        final int idIndex = idName == null ? -1 : selected.indexOf(idName);
+        final PersistenceWindowSpliterator windows = new PersistenceWindowSpliterator(sq, options.exportWindowSize(),
+                idName,
+                // a single column may be returned as the value instead of an array
+                row -> row instanceof Object[] values ? values[idIndex] : row,
+                windowQuery -> inEntityManager(entityType, em -> exportWindow(em, windowQuery, entityType, selected)),
+                failure -> { });
+        return observe(Operation.SELECT, sq.name(), sq, () -> {
+            final PersistenceExportWriter writer = new PersistenceExportWriter(channel, format, options.exportBufferSize());
+            long rows = 0;
+            try {
+                writer.header(columns);
+                for (Iterator<Object> iterator = Spliterators.iterator(windows); iterator.hasNext(); rows++) {
+                    final Object row = iterator.next();
+                    if (row instanceof Object[] values) {
+                        for (int i = 0; i < columns.size(); i++) {
+                            writer.value(values[i]);
+                        }
+                    } else {
+                        writer.value(row);
+                    }
+                    writer.endRow();
+                }
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Exporting " + sq.name() + " failed", e);
+            }
+            return rows;
+        }, Long::longValue);
+    }
+
+    private List<Object> exportWindow(EntityManager em, SelectQuery windowQuery, EntityType<?> entityType,
+            List<String> columns) {
+        final PreparedQuery<CriteriaQuery<Object[]>> preparedQuery = preparedQuery(em,
+                QueryShape.of(EXPORT_QUERY, windowQuery.name(), columns, windowQuery.condition(), windowQuery.sorts()),
+                criteriaBuilder -> prepareExport(criteriaBuilder, windowQuery, entityType, columns));
+        final TypedQuery<Object[]> typedQuery = preparedQuery.createQuery(em, windowQuery.condition());
+        return Collections.unmodifiableList(withHints(page(typedQuery, windowQuery)).getResultList());
+    }
+
+    /**
+     * Inserts entities asynchronously, in a single transaction.
+     *
+     * @see #insert(Iterable)
+     */
+    public CompletionStage<Iterable<CommunicationEntity>> insertAsync(Iterable<CommunicationEntity> entities) {
+        return CompletableFuture.supplyAsync(() -> insert(entities), executor);
+    }
+
+    /**
+     * Inserts the entity asynchronously. With {@link PersistenceConfigurations#WRITE_BEHIND_SIZE write-behind},
+     * the returned stage completes when the group of the entity is committed, without blocking a thread while
+     * waiting for the group.
+     *
+     * @see #insert(CommunicationEntity)
+     */
+    public CompletionStage<CommunicationEntity> insertAsync(CommunicationEntity entity) {
+        Objects.requireNonNull(entity, "entity is required");
+        if (writeBehind != null) {
+            return writeBehind.submit(entity, false);
+        }
+        return CompletableFuture.supplyAsync(() -> insert(entity), executor);
+    }
+
+    /**
+     * Updates the entity asynchronously, with write-behind like {@link #insertAsync(CommunicationEntity)}.
+     *
+     * @see #update(CommunicationEntity)
+     */
+    public CompletionStage<CommunicationEntity> updateAsync(CommunicationEntity entity) {
+        Objects.requireNonNull(entity, "entity is required");
+        if (writeBehind != null) {
+            return writeBehind.submit(entity, true);
+        }
+        return CompletableFuture.supplyAsync(() -> update(entity), executor);
+    }
+
+    /**
+     * Executes a select query asynchronously. All results are read before the returned stage completes.
+     *
+     * @see #select(SelectQuery)
+     */
+    public CompletionStage<List<CommunicationEntity>> selectAsync(SelectQuery query) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Stream<CommunicationEntity> entities = select(query)) {
+                return entities.toList();
+            }
+        }, executor);
+    }
+
+    /**
+     * Counts entities matching the query asynchronously.
+     *
+     * @see #count(SelectQuery)
+     */
+    public CompletionStage<Long> countAsync(SelectQuery query) {
+        return CompletableFuture.supplyAsync(() -> count(query), executor);
+    }
+
+    /**
+     * Counts all entities with the given name asynchronously.
+     *
+     * @see #count(String)
+     */
+    public CompletionStage<Long> countAsync(String entity) {
+        return CompletableFuture.supplyAsync(() -> count(entity), executor);
+    }
+
+    /**
+     * Commits the writes collected by the write-behind and stops purging expired entities, if this database
+     * manager doesn't share them with other managers, and shuts down the default executor of asynchronous operations,
+     * if this database manager created it. Entity managers are closed after each operation and the entity manager
+     * factory is closed by {@link PersistenceManagerFactory#close()}.
+     */
     @Override
     public void close() {
-        em.close();
+        if (ownsWriteBehind) {
+            writeBehind.close();
+        }
+        if (purger != null) {
+            purger.shutdown();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
     }
 
-    private EntityType<?> findEntityType(String entityName) {
+    /**
+     * @return Cache of prepared queries used by this manager
+     */
+    public PersistenceQueryCache queryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Writes entities in a transaction for each persistence unit that stores them, so entities of different units
+     * are not written atomically.
+     *
+     * @param merge Whether an entity is merged, otherwise it's persisted
+     * @param ttl Time to live of the entities, or null if they don't expire
+     * @return The written entities in the same order
+     */
+    private List<CommunicationEntity> writeInBatches(List<CommunicationEntity> entities,
+            Predicate<CommunicationEntity> merge, Duration ttl) {
+        final Map<EntityManagerFactory, List<Integer>> positionsByUnit = new LinkedHashMap<>();
+        for (int i = 0; i < entities.size(); i++) {
+            positionsByUnit.computeIfAbsent(units().primary(findEntityType(entities.get(i).name()).getName()),
+                    unit -> new ArrayList<>()).add(i);
+        }
+        if (positionsByUnit.size() <= 1) {
+            return writeInBatches(positionsByUnit.keySet().stream().findFirst().orElse(units().primary()), entities, merge, ttl);
+        }
+        final CommunicationEntity[] written = new CommunicationEntity[entities.size()];
+        positionsByUnit.forEach((unit, positions) -> {
+            final List<CommunicationEntity> writtenInUnit = writeInBatches(unit,
+                    positions.stream().map(entities::get).toList(), merge, ttl);
+            for (int i = 0; i < positions.size(); i++) {
+                written[positions.get(i)] = writtenInUnit.get(i);
+            }
+        });
+        return Arrays.asList(written);
+    }
+
+    private List<CommunicationEntity> writeInBatches(EntityManagerFactory emf, List<CommunicationEntity> entities,
+            Predicate<CommunicationEntity> merge, Duration ttl) {
+        final int batchSize = options.batchSize();
+        final List<Runnable> invalidations = new ArrayList<>();
+        final List<CommunicationEntity> written = inTransaction(emf, em -> {
+            final List<CommunicationEntity> result = new ArrayList<>();
+            int batchCount = 0;
+            for (CommunicationEntity communicationEntity : entities) {
+                final EntityType<?> entityType = findEntityType(communicationEntity.name());
+                final Object converted = PersistenceEntityConverter.toEntity(communicationEntity, entityType);
+                if (ttl != null) {
+                    expiry.expireAfter(converted, entityType, ttl);
+                }
+                final Object entity;
+                if (merge.test(communicationEntity)) {
+                    entity = em.merge(converted);
+                } else {
+                    em.persist(converted);
+                    entity = converted;
+                }
+                result.add(PersistenceEntityConverter.toCommunicationEntity(communicationEntity, entity, entityType));
+                if (entityCache.caches(communicationEntity.name())) {
+                    final Object id = emf.getPersistenceUnitUtil().getIdentifier(entity);
+                    invalidations.add(() -> entityCache.invalidate(communicationEntity.name(), id));
+                }
+                if (++batchCount == batchSize) {
+                    em.flush();
+                    em.clear();
+                    batchCount = 0;
+                }
+            }
+            return result;
+        });
+        invalidations.forEach(Runnable::run);
+        return written;
+    }
+
+    /**
+     * @return The id if the query selects a single entity only by an id equality condition
+     */
+    private Optional<Object> idOfFind(SelectQuery sq) {
+        final Optional<CriteriaCondition> condition = sq.condition();
+        if (condition.isEmpty() || condition.get().condition() != Condition.EQUALS || sq.skip() > 0) {
+            return Optional.empty();
+        }
+        final Element element = condition.get().element();
+        final EntityType<?> entityType = findEntityType(sq.name());
+        if (element.value().isNull() || !entityType.hasSingleIdAttribute()) {
+            return Optional.empty();
+        }
+        final SingularAttribute<?, ?> idAttribute = PersistenceEntityConverter.idAttribute(entityType);
+        final String name = element.name();
+        final boolean byId = name.equals(idAttribute.getName())
+                || ID_ELEMENT_NAME.equals(name) && PersistenceEntityConverter.attribute(entityType, name).equals(idAttribute);
+        return byId ? Optional.of(ValueUtil.convert(element.value())) : Optional.empty();
+    }
+
+    private List<Object> selectById(String entityName, Object idValue) {
+        final EntityType<?> entityType = findEntityType(entityName);
+        final Object id = PersistenceQueryConverter.convert(idValue,
+                PersistenceEntityConverter.idAttribute(entityType).getJavaType());
+        final Object entity = entityCache.get(entityName, id)
+                .orElseGet(() -> {
+                    final long version = entityCache.version(entityName, id);
+                    final Object found = inEntityManager(entityType, em -> {
+                        final List<String> fetchPlan = fetchPlan(entityType, List.of());
+                        return fetchPlan.isEmpty()
+                                ? em.find(entityType.getJavaType(), id)
+                                : em.find(entityType.getJavaType(), id,
+                                        Map.of(LOAD_GRAPH_HINT, loadGraph(em, entityType, fetchPlan)));
+                    });
+                    if (found != null) {
+                        entityCache.put(entityName, id, found, entityType, version);
+                    }
+                    return found;
+                });
+        return entity == null || expiry.isExpired(entity, entityType) ? List.of() : List.of(entity);
+    }
+
+    /**
+     * Executes the operation and notifies the listener about its duration and number of rows.
+     */
+    private <T> T observe(Operation operation, String entityName, Object query, Supplier<T> action,
+            ToLongFunction<? super T> rows) {
+        final long start = System.nanoTime();
+        final T result;
         try {
-            return em.getMetamodel().entity(entityName);
-        } catch (IllegalArgumentException e) {
-            // EclipseLink expects full class name in MM.entity() method. We need to find out the type otherwise
-            EntityType<?> entityType = entityTypesByName.get(entityName);
-            if (entityType != null) {
-                return entityType;
-            } else {
-                final IllegalArgumentException ex = new IllegalArgumentException("Entity with name " + entityName + " not found in the list of known entities");
-                ex.addSuppressed(e);
-                throw ex;
+            result = action.get();
+        } catch (RuntimeException | Error e) {
+            listener.operationCompleted(operation, entityName, query, System.nanoTime() - start, 0, e);
+            throw e;
+        }
+        listener.operationCompleted(operation, entityName, query, System.nanoTime() - start, rows.applyAsLong(result), null);
+        return result;
+    }
+
+    /**
+     * Deletes expired entities of all entity types with the {@link PersistenceConfigurations#TTL_ATTRIBUTE expiry
+     * attribute}. Entities are deleted in batches of at most {@link PersistenceConfigurations#TTL_PURGE_BATCH_SIZE}
+     * entities, each in a separate short transaction, so that locks are not held for long. A batch selects ids
+     * of expired entities and then deletes them by id, as a criteria delete can't be limited.
+     * <p>
+     * Expired entities are purged periodically in the background, unless
+     * {@link PersistenceConfigurations#TTL_PURGE_INTERVAL} is 0. Database managers created by
+     * a {@link PersistenceManagerFactory} share one background job of the factory.
+     *
+     * @return Number of deleted entities
+     */
+    public long purgeExpired() {
+        long deleted = 0;
+        for (EntityType<?> entityType : units().entities()) {
+            if (expiry.attribute(entityType).isEmpty() || !entityType.hasSingleIdAttribute()) {
+                continue;
+            }
+            long deletedOfType = 0;
+            int batch;
+            do {
+                batch = observe(Operation.DELETE, entityType.getName(), null,
+                        () -> inTransaction(entityType, em -> purgeBatch(em, entityType)), Integer::longValue);
+                deletedOfType += batch;
+            } while (batch == options.ttlPurgeBatchSize());
+            if (deletedOfType > 0) {
+                entityCache.invalidate(entityType.getName());
             }
+            deleted += deletedOfType;
         }
+        return deleted;
     }
 
-    private void cacheEntityTypes() {
-        em.getMetamodel().getEntities().forEach(type -> {
-            entityTypesByName.put(type.getName(), type);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private int purgeBatch(EntityManager em, EntityType<?> entityType) {
+        final SingularAttribute<?, ?> expiryAttribute = expiry.attribute(entityType).orElseThrow();
+        final String idName = PersistenceEntityConverter.idAttribute(entityType).getName();
+        final CriteriaBuilder criteriaBuilder = em.getCriteriaBuilder();
+
+        final CriteriaQuery<Object> idQuery = criteriaBuilder.createQuery(Object.class);
+        final Root<?> from = idQuery.from(entityType.getJavaType());
+        idQuery.select(from.get(idName)).where(criteriaBuilder.lessThanOrEqualTo(
+                (Expression<Comparable>) (Expression<?>) from.get(expiryAttribute.getName()),
+                (Comparable) expiry.now(expiryAttribute.getJavaType())));
+        final List<Object> ids = em.createQuery(idQuery).setMaxResults(options.ttlPurgeBatchSize()).getResultList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final CriteriaDelete delete = criteriaBuilder.createCriteriaDelete(entityType.getJavaType());
+        delete.where(delete.from(entityType.getJavaType()).get(idName).in(ids));
+        return em.createQuery(delete).executeUpdate();
+    }
+
+    /**
+     * @return Scheduler of purging expired entities, or null if no expiry attribute is configured or purging in
+     *         the background is disabled. Entities are purged only after the persistence units are created.
+     */
+    private ScheduledExecutorService newPurger() {
+        final long interval = options.ttlPurgeInterval().toMillis();
+        if (interval == 0 || !expiry.isEnabled()) {
+            return null;
+        }
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "jnosql-jakarta-persistence-ttl-purger");
+            thread.setDaemon(true);
+            return thread;
         });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                if (bootstrap.isCreated()) {
+                    purgeExpired();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Purging expired entities failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    private static PersistenceBootstrap bootstrap(String unitName, EntityManagerFactory emf) {
+        final PersistenceUnits units = PersistenceUnits.of(emf);
+        return new PersistenceBootstrap(unitName, () -> units);
+    }
+
+    private PersistenceUnits units() {
+        return bootstrap.units();
+    }
+
+    private SelectQuery withoutExpired(SelectQuery sq) {
+        return expiry.withoutExpired(sq, findEntityType(sq.name()));
+    }
+
+    /**
+     * Writes a group of single writes collected by the write-behind in one transaction. The commit is recorded
+     * once for each entity name and operation in the group, each with the duration of the whole commit.
+     */
+    private List<CommunicationEntity> writeGroup(List<PendingWrite> group) {
+        final List<CommunicationEntity> entities = group.stream().map(PendingWrite::entity).toList();
+        final Set<CommunicationEntity> updates = Collections.newSetFromMap(new IdentityHashMap<>());
+        group.stream().filter(PendingWrite::update).map(PendingWrite::entity).forEach(updates::add);
+        final long start = System.nanoTime();
+        final List<CommunicationEntity> written;
+        try {
+            written = writeInBatches(entities, updates::contains, null);
+        } catch (RuntimeException | Error e) {
+            observeGroup(group, System.nanoTime() - start, e);
+            throw e;
+        }
+        observeGroup(group, System.nanoTime() - start, null);
+        return written;
+    }
+
+    private void observeGroup(List<PendingWrite> group, long durationNanos, Throwable failure) {
+        group.stream()
+                .collect(Collectors.groupingBy(
+                        write -> Map.entry(write.entity().name(), write.update() ? Operation.UPDATE : Operation.INSERT),
+                        LinkedHashMap::new, Collectors.counting()))
+                .forEach((key, rows) -> listener.operationCompleted(key.getValue(), key.getKey(), null, durationNanos,
+                        failure == null ? rows : 0, failure));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static List<CommunicationEntity> toList(Iterable<CommunicationEntity> entities) {
+        if (entities instanceof List<CommunicationEntity> list) {
+            return list;
+        }
+        final List<CommunicationEntity> list = new ArrayList<>();
+        entities.forEach(list::add);
+        return list;
+    }
+
+    private static String entityName(List<CommunicationEntity> entities) {
+        return entities.isEmpty() ? "" : entities.get(0).name();
+    }
+
+    private List<CommunicationEntity> selectList(SelectQuery sq) {
+        if (!sq.columns().isEmpty()) {
+            return selectColumns(withoutExpired(sq));
+        }
+        final String entityName = sq.name();
+        return selectEntityList(sq).stream()
+                .map(persistenceEntity -> PersistenceEntityConverter.toCommunicationEntity(entityName, persistenceEntity))
+                .toList();
+    }
+
+    private List<Object> selectEntityList(SelectQuery sq) {
+        final Optional<Object> id = idOfFind(sq);
+        if (id.isPresent()) {
+            return selectById(sq.name(), id.get());
+        }
+        final SelectQuery notExpired = withoutExpired(sq);
+        return inEntityManager(findEntityType(sq.name()), em -> entityQuery(em, notExpired).getResultList());
+    }
+
+    /**
+     * Reads entities of the type in a replica of their persistence unit, if it has replicas.
+     */
+    private <T> T inEntityManager(EntityType<?> entityType, Function<EntityManager, T> action) {
+        return units().read(entityType.getName(), emf -> inEntityManager(emf, action));
+    }
+
+    private static <T> T inEntityManager(EntityManagerFactory emf, Function<EntityManager, T> action) {
+        final EntityManager em = emf.createEntityManager();
+        try {
+            return action.apply(em);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Writes entities of the type in their persistence unit.
+     */
+    private <T> T inTransaction(EntityType<?> entityType, Function<EntityManager, T> action) {
+        return inTransaction(units().primary(entityType.getName()), action);
+    }
+
+    private static <T> T inTransaction(EntityManagerFactory emf, Function<EntityManager, T> action) {
+        return inEntityManager(emf, em -> {
+            final EntityTransaction transaction = em.getTransaction();
+            transaction.begin();
+            try {
+                final T result = action.apply(em);
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * @return The prepared query for the shape in the persistence unit of the entity manager, built with the
+     *         criteria builder of the unit if it's not cached yet
+     */
+    private <C extends CommonAbstractCriteria> PreparedQuery<C> preparedQuery(EntityManager em, QueryShape shape,
+            Function<CriteriaBuilder, PreparedQuery<C>> builder) {
+        return queryCache.get(em.getEntityManagerFactory(), shape, builder);
+    }
+
+    private PreparedQuery<CriteriaQuery<Object>> prepareSelect(CriteriaBuilder criteriaBuilder, SelectQuery sq) {
+        final EntityType<?> entityType = findEntityType(sq.name());
+        final CriteriaQuery<Object> criteriaQuery = criteriaBuilder.createQuery();
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+        criteriaQuery.select(from);
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        sq.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+        if (!sq.sorts().isEmpty()) {
+            criteriaQuery.orderBy(converter.toOrders(sq.sorts()));
+        }
+        return new PreparedQuery<>(criteriaQuery, converter.parameters());
+    }
+
+    private static <T> PreparedQuery<CriteriaDelete<?>> prepareDelete(CriteriaBuilder criteriaBuilder,
+            EntityType<T> entityType, DeleteQuery dq) {
+        final CriteriaDelete<T> criteriaDelete = criteriaBuilder.createCriteriaDelete(entityType.getJavaType());
+        final Root<T> from = criteriaDelete.from(entityType.getJavaType());
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        dq.condition().ifPresent(condition -> criteriaDelete.where(converter.toPredicate(condition)));
+        return new PreparedQuery<>(criteriaDelete, converter.parameters());
+    }
+
+    /**
+     * Loads and removes the entities matching the query, a batch at a time. Removed entities are flushed and
+     * the persistence context cleared after each batch, so the next batch is again read from the first row.
+     */
+    private int removeEntities(EntityManager em, DeleteQuery dq) {
+        final SelectQuery.QueryBuilder selectBuilder = SelectQuery.builder().from(dq.name());
+        dq.condition().ifPresent(selectBuilder::where);
+        final SelectQuery sq = selectBuilder.build();
+        final PreparedQuery<CriteriaQuery<Object>> preparedQuery = preparedQuery(em,
+                QueryShape.of(SELECT_QUERY, sq.name(), sq.condition(), List.of()),
+                criteriaBuilder -> prepareSelect(criteriaBuilder, sq));
+        final int batchSize = options.batchSize();
+        int removed = 0;
+        List<Object> batch;
+        do {
+            batch = preparedQuery.createQuery(em, sq.condition())
+                    .setMaxResults(batchSize)
+                    .getResultList();
+            batch.forEach(em::remove);
+            em.flush();
+            em.clear();
+            removed += batch.size();
+        } while (batch.size() == batchSize);
+        return removed;
+    }
+
+    /**
+     * A bulk delete statement bypasses cascades, deletion of element collections and lifecycle callbacks.
+     * Relationships and element collections are found in the metamodel, remove callbacks on the entity class
+     * and its entity listeners. Default entity listeners defined in orm.xml are not detected.
+     */
+    private boolean requiresEntityRemoval(EntityType<?> entityType) {
+        return entityTypesRequiringRemoval.computeIfAbsent(entityType.getJavaType(), type ->
+                entityType.getAttributes().stream().anyMatch(attribute -> attribute.isAssociation()
+                        || attribute.getPersistentAttributeType() == PersistentAttributeType.ELEMENT_COLLECTION)
+                || hasRemoveCallbacks(type));
+    }
+
+    private static boolean hasRemoveCallbacks(Class<?> entityClass) {
+        for (Class<?> type = entityClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (hasRemoveCallbackMethods(type)) {
+                return true;
+            }
+            final EntityListeners listeners = type.getAnnotation(EntityListeners.class);
+            if (listeners != null && Arrays.stream(listeners.value())
+                    .anyMatch(PersistenceDatabaseManager::hasRemoveCallbackMethods)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRemoveCallbackMethods(Class<?> type) {
+        return Arrays.stream(type.getDeclaredMethods())
+                .anyMatch(method -> method.isAnnotationPresent(PreRemove.class)
+                        || method.isAnnotationPresent(PostRemove.class));
+    }
+
+    private List<CommunicationEntity> selectColumns(SelectQuery sq) {
+        final String entityName = sq.name();
+        final List<String> columns = sq.columns();
+        return inEntityManager(findEntityType(entityName), em -> {
+            final PreparedQuery<CriteriaQuery<?>> preparedQuery = preparedQuery(em,
+                    QueryShape.of(PROJECTION_QUERY, entityName, columns, sq.condition(), sq.sorts()),
+                    criteriaBuilder -> prepareProjection(criteriaBuilder, sq));
+            final TypedQuery<?> query = preparedQuery.createQuery(em, sq.condition());
+            if (preparedQuery.criteria().getResultType() != Tuple.class) {
+                final EntityType<?> entityType = findEntityType(entityName);
+                withFetchPlan(em, query, entityType, fetchPlan(entityType, columns));
+            }
+            return withHints(page(query, sq)).getResultList();
+        }).stream()
+                .map(result -> result instanceof Tuple tuple
+                        ? PersistenceEntityConverter.toCommunicationEntity(entityName, columns, tuple)
+                        : PersistenceEntityConverter.toCommunicationEntity(entityName, result))
+                .toList();
+    }
+
+    private TypedQuery<Object> entityQuery(EntityManager em, SelectQuery sq) {
+        final PreparedQuery<CriteriaQuery<Object>> preparedQuery = preparedQuery(em,
+                QueryShape.of(SELECT_QUERY, sq.name(), sq.condition(), sq.sorts()),
+                criteriaBuilder -> prepareSelect(criteriaBuilder, sq));
+        final TypedQuery<Object> query = preparedQuery.createQuery(em, sq.condition());
+        final EntityType<?> entityType = findEntityType(sq.name());
+        return withFetchPlan(em, withHints(page(query, sq)), entityType, fetchPlan(entityType, List.of()));
+    }
+
+    /**
+     * @return Attributes in the {@link PersistenceFetchPlan fetch plan} of the entity, followed by collection
+     * attributes among the columns
+     */
+    private List<String> fetchPlan(EntityType<?> entityType, List<String> columns) {
+        final List<String> entityFetchPlan = fetchPlans.computeIfAbsent(entityType.getJavaType(), type -> {
+            final PersistenceFetchPlan annotation = type.getAnnotation(PersistenceFetchPlan.class);
+            return annotation == null ? List.of() : List.of(annotation.value());
+        });
+        final List<String> collectionColumns = columns.stream()
+                .filter(column -> PersistenceEntityConverter.attribute(entityType, column.split("\\.")[0]).isCollection())
+                .filter(column -> !entityFetchPlan.contains(column))
+                .toList();
+        if (collectionColumns.isEmpty()) {
+            return entityFetchPlan;
+        }
+        final List<String> fetchPlan = new ArrayList<>(entityFetchPlan);
+        fetchPlan.addAll(collectionColumns);
+        return fetchPlan;
+    }
+
+    private static <Q extends Query> Q withFetchPlan(EntityManager em, Q query, EntityType<?> entityType,
+            List<String> fetchPlan) {
+        if (!fetchPlan.isEmpty()) {
+            query.setHint(LOAD_GRAPH_HINT, loadGraph(em, entityType, fetchPlan));
+        }
+        return query;
+    }
+
+    private static EntityGraph<?> loadGraph(EntityManager em, EntityType<?> entityType, List<String> fetchPlan) {
+        final EntityGraph<?> graph = em.createEntityGraph(entityType.getJavaType());
+        fetchPlan.forEach(attribute -> addAttribute(graph, attribute));
+        return graph;
+    }
+
+    private static void addAttribute(Graph<?> graph, String attribute) {
+        final int dot = attribute.indexOf('.');
+        if (dot < 0) {
+            graph.addAttributeNodes(attribute);
+        } else {
+            addAttribute(graph.addSubgraph(attribute.substring(0, dot)), attribute.substring(dot + 1));
+        }
+    }
+
+    private <Q extends Query> Q withHints(Q query) {
+        options.fetchSizeHints().forEach(query::setHint);
+        return query;
+    }
+
+    private static <Q extends Query> Q page(Q query, SelectQuery sq) {
+        if (sq.skip() > 0) {
+            query.setFirstResult(Math.toIntExact(sq.skip()));
+        }
+        if (sq.limit() > 0) {
+            query.setMaxResults(Math.toIntExact(sq.limit()));
+        }
+        return query;
+    }
+
+    private PreparedQuery<CriteriaQuery<?>> prepareProjection(CriteriaBuilder criteriaBuilder, SelectQuery sq) {
+        final EntityType<?> entityType = findEntityType(sq.name());
+        final boolean hasCollection = sq.columns().stream()
+                .map(column -> PersistenceEntityConverter.attribute(entityType, column.split("\\.")[0]))
+                .anyMatch(Attribute::isCollection);
+        if (hasCollection) {
+            final PreparedQuery<CriteriaQuery<Object>> entityQuery = prepareSelect(criteriaBuilder, sq);
+            return new PreparedQuery<>(entityQuery.criteria(), entityQuery.parameters());
+        }
+        final CriteriaQuery<Tuple> criteriaQuery = criteriaBuilder.createTupleQuery();
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        criteriaQuery.select(criteriaBuilder.tuple(sq.columns().stream()
+                .<Selection<?>>map(converter::path)
+                .toList()));
+        sq.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+        if (!sq.sorts().isEmpty()) {
+            criteriaQuery.orderBy(converter.toOrders(sq.sorts()));
+        }
+        return new PreparedQuery<>(criteriaQuery, converter.parameters());
+    }
+
+    private static QueryShape aggregateShape(PersistenceAggregateQuery query) {
+        final List<String> columns = new ArrayList<>();
+        query.groupBy().forEach(attribute -> columns.add("group " + attribute));
+        query.aggregates().forEach(aggregate -> columns.add(aggregate.function() + "(" + aggregate.attribute() + ") "
+                + aggregate.alias()));
+        query.having().ifPresent(having -> columns.add("having " + PersistenceQueryConverter.shapeOf(having)));
+        return QueryShape.of(AGGREGATE_QUERY, query.name(), columns, query.condition(), query.sorts());
+    }
+
+    /**
+     * Prepares a tuple query that selects the group attributes followed by the aggregates. The parameters of
+     * the condition precede the parameters of the having condition.
+     */
+    private PreparedQuery<CriteriaQuery<Tuple>> prepareAggregate(CriteriaBuilder criteriaBuilder,
+            PersistenceAggregateQuery query) {
+        final EntityType<?> entityType = findEntityType(query.name());
+        final CriteriaQuery<Tuple> criteriaQuery = criteriaBuilder.createTupleQuery();
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        final List<Expression<?>> groups = query.groupBy().stream()
+                .<Expression<?>>map(converter::path)
+                .toList();
+        final Map<String, Expression<?>> aggregates = new LinkedHashMap<>();
+        query.aggregates().forEach(aggregate -> aggregates.put(aggregate.alias(),
+                aggregateExpression(criteriaBuilder, from, converter, aggregate)));
+        final List<Selection<?>> selections = new ArrayList<>(groups);
+        selections.addAll(aggregates.values());
+        criteriaQuery.select(criteriaBuilder.tuple(selections));
+        if (!groups.isEmpty()) {
+            criteriaQuery.groupBy(groups);
+        }
+        if (query.aggregates().isEmpty()) {
+            criteriaQuery.distinct(true);
+        }
+        query.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+
+        final PersistenceQueryConverter aggregateConverter = new PersistenceQueryConverter(criteriaBuilder, from,
+                aggregates, "having");
+        query.having().ifPresent(having -> criteriaQuery.having(aggregateConverter.toPredicate(having)));
+        if (!query.sorts().isEmpty()) {
+            criteriaQuery.orderBy(aggregateConverter.toOrders(query.sorts()));
+        }
+        final List<QueryParameter> parameters = new ArrayList<>(converter.parameters());
+        parameters.addAll(aggregateConverter.parameters());
+        return new PreparedQuery<>(criteriaQuery, parameters);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Expression<?> aggregateExpression(CriteriaBuilder criteriaBuilder, Root<?> from,
+            PersistenceQueryConverter converter, PersistenceAggregateQuery.Aggregate aggregate) {
+        if (aggregate.attribute() == null) {
+            return criteriaBuilder.count(from);
+        }
+        final Expression path = converter.path(aggregate.attribute());
+        return switch (aggregate.function()) {
+            case COUNT -> criteriaBuilder.count(path);
+            case COUNT_DISTINCT -> criteriaBuilder.countDistinct(path);
+            case SUM -> criteriaBuilder.sum(path);
+            case AVG -> criteriaBuilder.avg(path);
+            case MIN -> criteriaBuilder.least(path);
+            case MAX -> criteriaBuilder.greatest(path);
+        };
+    }
+
+    private static PreparedQuery<CriteriaQuery<Object[]>> prepareExport(CriteriaBuilder criteriaBuilder, SelectQuery sq,
+            EntityType<?> entityType, List<String> columns) {
+        columns.stream()
+                .filter(column -> PersistenceEntityConverter.attribute(entityType, column.split("\\.")[0]).isCollection())
+                .findFirst()
+                .ifPresent(column -> {
+                    throw new IllegalArgumentException("Collection attributes can't be exported: " + column);
+                });
+        final CriteriaQuery<Object[]> criteriaQuery = criteriaBuilder.createQuery(Object[].class);
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        criteriaQuery.select(criteriaBuilder.array(columns.stream()
+                .<Selection<?>>map(converter::path)
+                .toList()));
+        sq.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+        if (!sq.sorts().isEmpty()) {
+            criteriaQuery.orderBy(converter.toOrders(sq.sorts()));
+        }
+        return new PreparedQuery<>(criteriaQuery, converter.parameters());
+    }
+
+    /**
+     * @return Names of basic attributes of the entity that are not collections or maps, the id first and then
+     *         in alphabetical order
+     */
+    private static List<String> basicAttributes(EntityType<?> entityType) {
+        return entityType.getSingularAttributes().stream()
+                .filter(attribute -> attribute.getPersistentAttributeType() == PersistentAttributeType.BASIC)
+                .filter(attribute -> !Collection.class.isAssignableFrom(attribute.getJavaType())
+                        && !Map.class.isAssignableFrom(attribute.getJavaType()))
+                .sorted(Comparator.<SingularAttribute<?, ?>, Boolean>comparing(attribute -> !attribute.isId())
+                        .thenComparing(Attribute::getName))
+                .<String>map(Attribute::getName)
+                .toList();
+    }
+
+    /**
+     * Prepares a tuple query that selects the entity followed by the values of its sort keys.
+     */
+    private PreparedQuery<CriteriaQuery<Tuple>> prepareCursor(CriteriaBuilder criteriaBuilder, SelectQuery sq) {
+        final EntityType<?> entityType = findEntityType(sq.name());
+        final CriteriaQuery<Tuple> criteriaQuery = criteriaBuilder.createTupleQuery();
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        final List<Selection<?>> selections = new ArrayList<>();
+        selections.add(from);
+        sq.sorts().forEach(sort -> selections.add(converter.path(sort.property())));
+        criteriaQuery.select(criteriaBuilder.tuple(selections));
+        sq.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+        criteriaQuery.orderBy(converter.toOrders(sq.sorts()));
+        return new PreparedQuery<>(criteriaQuery, converter.parameters());
+    }
+
+    private long total(SelectQuery query, PageRequest pageRequest) {
+        return pageRequest.requestTotal() ? count(query) : -1;
+    }
+
+    private PreparedQuery<CriteriaQuery<Long>> prepareCount(CriteriaBuilder criteriaBuilder, SelectQuery sq) {
+        final EntityType<?> entityType = findEntityType(sq.name());
+        final CriteriaQuery<Long> criteriaQuery = criteriaBuilder.createQuery(Long.class);
+        final Root<?> from = criteriaQuery.from(entityType.getJavaType());
+        criteriaQuery.select(criteriaBuilder.count(from));
+
+        final PersistenceQueryConverter converter = new PersistenceQueryConverter(criteriaBuilder, from);
+        sq.condition().ifPresent(condition -> criteriaQuery.where(converter.toPredicate(condition)));
+        return new PreparedQuery<>(criteriaQuery, converter.parameters());
+    }
+
+    private EntityType<?> findEntityType(String entityName) {
+        return bootstrap.entityTypes().get(entityName);
     }
 
 }
@@ -16,7 +16,12 @@
 package ee.omnifish.jnosql.jakartapersistence.communication;
 
 
+import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import org.eclipse.jnosql.communication.Settings;
 import org.eclipse.jnosql.communication.semistructured.DatabaseConfiguration;
 import org.eclipse.jnosql.communication.semistructured.DatabaseManagerFactory;
@@ -27,10 +32,34 @@ import org.eclipse.jnosql.communication.semistructured.DatabaseManagerFactory;
  */
 public class PersistenceDbConfiguration implements DatabaseConfiguration {
 
+    /**
+     * Creates the database manager factory. Entity manager factories are created when configured by
+     * {@link PersistenceConfigurations#BOOTSTRAP}.
+     */
     @Override
     public DatabaseManagerFactory apply(Settings settings) {
-        final String persistenceUnitName = settings.get("jnosql.column.database", String.class).get();
-        return new PersistenceManagerFactory(Persistence.createEntityManagerFactory(persistenceUnitName));
+        final String persistenceUnitName = settings.get(PersistenceConfigurations.PERSISTENCE_UNIT.get(), String.class).get();
+        final PersistenceOptions options = new PersistenceOptions(settings);
+        return new PersistenceManagerFactory(
+                new PersistenceBootstrap(persistenceUnitName, () -> createUnits(persistenceUnitName, options)), options);
+    }
+
+    private static PersistenceUnits createUnits(String persistenceUnitName, PersistenceOptions options) {
+        final Map<String, EntityManagerFactory> factories = new HashMap<>();
+        final Function<String, EntityManagerFactory> factory = unitName -> factories.computeIfAbsent(unitName,
+                name -> Persistence.createEntityManagerFactory(name, options.persistenceUnitProperties()));
+        try {
+            final EntityManagerFactory primary = factory.apply(persistenceUnitName);
+            final List<EntityManagerFactory> replicas = options.replicaUnits().stream()
+                    .map(factory)
+                    .toList();
+            final Map<String, EntityManagerFactory> entityUnits = new HashMap<>();
+            options.entityUnits().forEach((entityName, unitName) -> entityUnits.put(entityName, factory.apply(unitName)));
+            return new PersistenceUnits(primary, replicas, options.replicaBalancing(), entityUnits);
+        } catch (RuntimeException e) {
+            factories.values().forEach(EntityManagerFactory::close);
+            throw e;
+        }
     }
 
 }
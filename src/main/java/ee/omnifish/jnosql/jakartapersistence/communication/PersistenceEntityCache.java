@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.metamodel.EntityType;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of entities found by id, for entities listed in
+ * {@link PersistenceConfigurations#ENTITY_CACHE_ENTITIES}. Entries expire after a fixed time to live and
+ * the least recently used entry is evicted when the cache is full.
+ * <p>
+ * Writes through {@link PersistenceDatabaseManager} invalidate the written entities after the transaction
+ * is committed, and delete queries invalidate all cached entities with the same name. Changes made outside
+ * of the database managers created by the same {@link PersistenceManagerFactory} are visible only after the
+ * entries expire.
+ * <p>
+ * The cache keeps a {@link PersistenceEntityConverter#copy copy} of each entity and returns a new copy to each
+ * reader, so readers can modify the returned entities without affecting the cache or each other. Related entities
+ * are not copied, they are shared by all copies.
+ * <p>
+ * An entity read from the database is cached only if it was not invalidated while it was being read, otherwise
+ * a stale entity read before a concurrent write could be cached after the write invalidated it. Invalidations are
+ * tracked by versions of ids, which are {@link #version read} before the entity is read and compared when it's
+ * {@link #put put} into the cache. Ids share {@value #VERSION_STRIPES} versions, so an invalidation of another
+ * id may rarely prevent caching an entity, but never lets a stale entity into the cache.
+ */
+final class PersistenceEntityCache {
+
+    static final int VERSION_STRIPES = 1024;
+
+    private final Set<String> entityNames;
+    private final int maxSize;
+    private final long timeToLiveNanos;
+    private final LongSupplier nanoClock;
+    private final Map<Key, CachedEntity> entries;
+    private final long[] versions = new long[VERSION_STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    PersistenceEntityCache(Set<String> entityNames, int maxSize, Duration timeToLive) {
+        this(entityNames, maxSize, timeToLive, System::nanoTime);
+    }
+
+    PersistenceEntityCache(Set<String> entityNames, int maxSize, Duration timeToLive, LongSupplier nanoClock) {
+        this.entityNames = Set.copyOf(entityNames);
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.nanoClock = nanoClock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedEntity> eldest) {
+                return size() > PersistenceEntityCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return Whether entities with the given name are cached
+     */
+    boolean caches(String entityName) {
+        return maxSize > 0 && timeToLiveNanos > 0 && entityNames.contains(entityName);
+    }
+
+    Optional<Object> get(String entityName, Object id) {
+        if (!caches(entityName)) {
+            return Optional.empty();
+        }
+        final Key key = new Key(entityName, id);
+        final CachedEntity entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt() - nanoClock.getAsLong() <= 0) {
+                entries.remove(key);
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(PersistenceEntityConverter.copy(entry.entity(), entry.entityType()));
+    }
+
+    /**
+     * @return Version of the id, to be passed to {@link #put} when the entity is read from the database
+     */
+    long version(String entityName, Object id) {
+        final Key key = new Key(entityName, id);
+        synchronized (entries) {
+            return versions[key.stripe()];
+        }
+    }
+
+    /**
+     * Caches a copy of the entity, unless it was invalidated since the version was read.
+     *
+     * @param entityType Entity type of the class of the entity
+     * @param version Version of the id read before the entity was read from the database
+     */
+    void put(String entityName, Object id, Object entity, EntityType<?> entityType, long version) {
+        if (caches(entityName) && entity.getClass() == entityType.getJavaType()) {
+            final Key key = new Key(entityName, id);
+            final CachedEntity entry = new CachedEntity(PersistenceEntityConverter.copy(entity, entityType),
+                    entityType, nanoClock.getAsLong() + timeToLiveNanos);
+            synchronized (entries) {
+                if (versions[key.stripe()] == version) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+    }
+
+    void invalidate(String entityName, Object id) {
+        if (caches(entityName)) {
+            final Key key = new Key(entityName, id);
+            synchronized (entries) {
+                entries.remove(key);
+                versions[key.stripe()]++;
+            }
+        }
+    }
+
+    void invalidate(String entityName) {
+        if (caches(entityName)) {
+            synchronized (entries) {
+                entries.keySet().removeIf(key -> key.entityName().equals(entityName));
+                for (int i = 0; i < versions.length; i++) {
+                    versions[i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of entities found in the cache
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of lookups of cached entity types that were not found in the cache or had expired
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    private record Key(String entityName, Object id) {
+
+        int stripe() {
+            return Math.floorMod(hashCode(), VERSION_STRIPES);
+        }
+    }
+
+    private record CachedEntity(Object entity, EntityType<?> entityType, long expiresAt) {
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryConverter.ID_ELEMENT_NAME;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.eclipse.jnosql.communication.Value;
+import org.eclipse.jnosql.communication.ValueUtil;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+import org.eclipse.jnosql.communication.semistructured.Element;
+
+/**
+ * Converts between Jakarta Persistence entities and communication entities.
+ * <p>
+ * A communication entity either wraps a whole persistence entity in a single element named
+ * {@value #ENTITY_ELEMENT_NAME}, or contains an element for each attribute of the entity.
+ * Persistence entities are always returned from queries in the wrapped form.
+ */
+final class PersistenceEntityConverter {
+
+    /**
+     * Name of the element that wraps a whole persistence entity
+     */
+    static final String ENTITY_ELEMENT_NAME = "1";
+
+    private static final ClassValue<Boolean> PERSISTENCE_ENTITY_CLASSES = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                if (c.isAnnotationPresent(Entity.class)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    private PersistenceEntityConverter() {
+    }
+
+    static CommunicationEntity toCommunicationEntity(String entityName, Object entity) {
+        return CommunicationEntity.of(entityName, List.of(Element.of(ENTITY_ELEMENT_NAME, Value.of(entity))));
+    }
+
+    /**
+     * Converts a tuple with a value for each column to a communication entity with an element for each column.
+     */
+    static CommunicationEntity toCommunicationEntity(String entityName, List<String> columns, Tuple tuple) {
+        final List<Element> elements = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            elements.add(Element.of(columns.get(i), tuple.get(i)));
+        }
+        return CommunicationEntity.of(entityName, elements);
+    }
+
+    /**
+     * Converts values of a result row to a communication entity with an element for each value, named by its position.
+     */
+    static CommunicationEntity toCommunicationEntity(String entityName, Object[] values) {
+        final List<Element> elements = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            elements.add(Element.of(String.valueOf(i), values[i]));
+        }
+        return CommunicationEntity.of(entityName, elements);
+    }
+
+    /**
+     * Converts the entity to a communication entity of the same form as the original communication entity.
+     */
+    static CommunicationEntity toCommunicationEntity(CommunicationEntity original, Object entity, EntityType<?> entityType) {
+        if (isWrapped(original, entityType)) {
+            return toCommunicationEntity(original.name(), entity);
+        }
+        final List<Element> elements = new ArrayList<>();
+        for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+            final String name = attribute.isId() && original.contains(ID_ELEMENT_NAME)
+                    ? ID_ELEMENT_NAME
+                    : attribute.getName();
+            elements.add(Element.of(name, getAttribute(entity, attribute)));
+        }
+        return CommunicationEntity.of(original.name(), elements);
+    }
+
+    static Object toEntity(CommunicationEntity communicationEntity, EntityType<?> entityType) {
+        final Class<?> javaType = entityType.getJavaType();
+        if (isWrapped(communicationEntity, entityType)) {
+            return communicationEntity.elements().get(0).get();
+        }
+        final Object entity = newInstance(javaType);
+        for (Element element : communicationEntity.elements()) {
+            final Attribute<?, ?> attribute = attribute(entityType, element.name());
+            setAttribute(entity, attribute, ValueUtil.convert(element.value()));
+        }
+        return entity;
+    }
+
+    static Attribute<?, ?> attribute(EntityType<?> entityType, String name) {
+        if (ID_ELEMENT_NAME.equals(name)
+                && entityType.getAttributes().stream().noneMatch(a -> a.getName().equals(name))) {
+            return idAttribute(entityType);
+        }
+        return entityType.getAttribute(name);
+    }
+
+    static SingularAttribute<?, ?> idAttribute(EntityType<?> entityType) {
+        return entityType.getSingularAttributes().stream()
+                .filter(SingularAttribute::isId)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Entity " + entityType.getName()
+                        + " doesn't have a single id attribute"));
+    }
+
+    static Object getAttribute(Object entity, Attribute<?, ?> attribute) {
+        final Member member = attribute.getJavaMember();
+        try {
+            if (member instanceof Field field) {
+                field.setAccessible(true);
+                return field.get(entity);
+            } else if (member instanceof Method getter) {
+                getter.setAccessible(true);
+                return getter.invoke(entity);
+            }
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot read attribute " + attribute.getName() + " of " + entity, e);
+        }
+        throw new IllegalStateException("Unsupported member " + member + " of attribute " + attribute.getName());
+    }
+
+    static void setAttribute(Object entity, Attribute<?, ?> attribute, Object value) {
+        setConvertedAttribute(entity, attribute, PersistenceQueryConverter.convert(value, attribute.getJavaType()));
+    }
+
+    /**
+     * Copies the entity and its attribute values. Collections, maps, arrays and dates are copied too, so they can be
+     * modified independently, other values, including related entities, are shared by the entity and the copy.
+     *
+     * @param entityType Entity type of the class of the entity
+     */
+    static Object copy(Object entity, EntityType<?> entityType) {
+        final Object copy = newInstance(entityType.getJavaType());
+        for (Attribute<?, ?> attribute : entityType.getAttributes()) {
+            setConvertedAttribute(copy, attribute, copyValue(getAttribute(entity, attribute)));
+        }
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof SortedSet<?> set) {
+            return new TreeSet<>(set);
+        } else if (value instanceof Set<?> set) {
+            return new LinkedHashSet<>(set);
+        } else if (value instanceof Collection<?> collection) {
+            return new ArrayList<>(collection);
+        } else if (value instanceof SortedMap<?, ?> map) {
+            return new TreeMap<>(map);
+        } else if (value instanceof Map<?, ?> map) {
+            return new LinkedHashMap<>(map);
+        } else if (value instanceof Date date) {
+            return date.clone();
+        } else if (value != null && value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            final Object array = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, array, 0, length);
+            return array;
+        }
+        return value;
+    }
+
+    private static void setConvertedAttribute(Object entity, Attribute<?, ?> attribute, Object converted) {
+        final Member member = attribute.getJavaMember();
+        try {
+            if (member instanceof Field field) {
+                field.setAccessible(true);
+                field.set(entity, converted);
+                return;
+            } else if (member instanceof Method getter) {
+                final String name = attribute.getName();
+                final Method setter = getter.getDeclaringClass().getDeclaredMethod(
+                        "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1), attribute.getJavaType());
+                setter.setAccessible(true);
+                setter.invoke(entity, converted);
+                return;
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set attribute " + attribute.getName() + " of " + entity, e);
+        }
+        throw new IllegalStateException("Unsupported member " + member + " of attribute " + attribute.getName());
+    }
+
+    /**
+     * @return The persistence entity wrapped in the communication entity, or null if the communication entity
+     *         doesn't wrap a persistence entity
+     */
+    static Object wrappedEntity(CommunicationEntity communicationEntity) {
+        if (communicationEntity.size() != 1) {
+            return null;
+        }
+        final Element element = communicationEntity.elements().get(0);
+        if (!element.name().equals(ENTITY_ELEMENT_NAME)) {
+            return null;
+        }
+        final Object value = element.get();
+        return value != null && PERSISTENCE_ENTITY_CLASSES.get(value.getClass()) ? value : null;
+    }
+
+    private static boolean isWrapped(CommunicationEntity communicationEntity, EntityType<?> entityType) {
+        return communicationEntity.size() == 1
+                && communicationEntity.elements().get(0).name().equals(ENTITY_ELEMENT_NAME)
+                && entityType.getJavaType().isInstance(communicationEntity.elements().get(0).get());
+    }
+
+    private static Object newInstance(Class<?> javaType) {
+        try {
+            final Constructor<?> constructor = javaType.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create an instance of entity " + javaType.getName()
+                    + ", it must have a no-arg constructor", e);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.Metamodel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entity types of a persistence unit by the names JNoSQL may use for them: the JPA entity name, the fully qualified
+ * class name and the simple class name. A simple class name shared by more entity classes isn't resolved, the other
+ * names of those entities are.
+ * <p>
+ * The names are read from the metamodel once and the lookup is immutable afterwards, so it's safe to share it
+ * between threads and database managers without locking.
+ */
+final class PersistenceEntityTypes {
+
+    private final Map<String, EntityType<?>> entityTypes;
+
+    private PersistenceEntityTypes(Map<String, EntityType<?>> entityTypes) {
+        this.entityTypes = Map.copyOf(entityTypes);
+    }
+
+    static PersistenceEntityTypes of(Metamodel metamodel) {
+        return of(metamodel.getEntities());
+    }
+
+    /**
+     * @param types Entity types, possibly from more persistence units
+     */
+    static PersistenceEntityTypes of(Collection<? extends EntityType<?>> types) {
+        final Map<String, EntityType<?>> byName = new HashMap<>();
+        final Map<String, EntityType<?>> bySimpleName = new HashMap<>();
+        final Set<String> ambiguousSimpleNames = new HashSet<>();
+        for (EntityType<?> type : types) {
+            byName.put(type.getName(), type);
+            final String simpleName = type.getJavaType().getSimpleName();
+            if (bySimpleName.putIfAbsent(simpleName, type) != null) {
+                ambiguousSimpleNames.add(simpleName);
+            }
+        }
+        for (EntityType<?> type : types) {
+            byName.putIfAbsent(type.getJavaType().getName(), type);
+        }
+        bySimpleName.forEach((simpleName, type) -> {
+            if (!ambiguousSimpleNames.contains(simpleName)) {
+                byName.putIfAbsent(simpleName, type);
+            }
+        });
+        return new PersistenceEntityTypes(byName);
+    }
+
+    /**
+     * @throws IllegalArgumentException If no entity has the name
+     */
+    EntityType<?> get(String entityName) {
+        final EntityType<?> entityType = entityTypes.get(entityName);
+        if (entityType == null) {
+            throw new IllegalArgumentException("Entity with name " + entityName + " not found in the list of known entities");
+        }
+        return entityType;
+    }
+}
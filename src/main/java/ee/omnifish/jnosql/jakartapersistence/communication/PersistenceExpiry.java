@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.data.Sort;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jnosql.communication.Value;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.Element;
+import org.eclipse.jnosql.communication.semistructured.SelectQuery;
+
+/**
+ * Time to live of entities. Entities inserted with a time to live store the time when they expire in the
+ * {@link PersistenceConfigurations#TTL_ATTRIBUTE expiry attribute}, which can be of type {@link Instant},
+ * {@link LocalDateTime} in the time zone of the clock, or {@link Long} with milliseconds since the epoch.
+ * Entities with a null expiry time never expire.
+ */
+final class PersistenceExpiry {
+
+    private final String attributeName;
+    private final Clock clock;
+    private final Map<EntityType<?>, Optional<SingularAttribute<?, ?>>> attributes = new ConcurrentHashMap<>();
+
+    /**
+     * @param attributeName Name of the expiry attribute, or null if entities never expire
+     */
+    PersistenceExpiry(String attributeName, Clock clock) {
+        this.attributeName = attributeName;
+        this.clock = clock;
+    }
+
+    /**
+     * @return Whether an expiry attribute is configured
+     */
+    boolean isEnabled() {
+        return attributeName != null;
+    }
+
+    /**
+     * @return The expiry attribute of the entity type, or an empty optional if entities of the type never expire
+     */
+    Optional<SingularAttribute<?, ?>> attribute(EntityType<?> entityType) {
+        if (attributeName == null) {
+            return Optional.empty();
+        }
+        return attributes.computeIfAbsent(entityType, type -> type.getSingularAttributes().stream()
+                .filter(attribute -> attribute.getName().equals(attributeName))
+                .<SingularAttribute<?, ?>>map(attribute -> attribute)
+                .findFirst());
+    }
+
+    /**
+     * Sets the expiry time of the entity to the current time plus the time to live.
+     *
+     * @throws UnsupportedOperationException If the entity doesn't have the expiry attribute
+     */
+    void expireAfter(Object entity, EntityType<?> entityType, Duration ttl) {
+        final SingularAttribute<?, ?> attribute = attribute(entityType)
+                .orElseThrow(() -> new UnsupportedOperationException("Entity " + entityType.getName()
+                        + " doesn't support time to live, it doesn't have the expiry attribute "
+                        + (attributeName == null ? "configured with " + PersistenceConfigurations.TTL_ATTRIBUTE.get()
+                                : attributeName)));
+        PersistenceEntityConverter.setAttribute(entity, attribute,
+                toValue(clock.instant().plus(ttl), attribute.getJavaType()));
+    }
+
+    boolean isExpired(Object entity, EntityType<?> entityType) {
+        return attribute(entityType)
+                .map(attribute -> PersistenceEntityConverter.getAttribute(entity, attribute))
+                .map(this::toInstant)
+                .filter(expiresAt -> !expiresAt.isAfter(clock.instant()))
+                .isPresent();
+    }
+
+    /**
+     * @return The query with an additional condition that matches only entities that are not expired, or the same
+     *         query if entities of the type never expire
+     */
+    SelectQuery withoutExpired(SelectQuery sq, EntityType<?> entityType) {
+        final Optional<SingularAttribute<?, ?>> attribute = attribute(entityType);
+        if (attribute.isEmpty()) {
+            return sq;
+        }
+        final String name = attribute.get().getName();
+        final CriteriaCondition notExpired = CriteriaCondition.or(
+                CriteriaCondition.eq(Element.of(name, Value.ofNull())),
+                CriteriaCondition.gt(name, now(attribute.get().getJavaType())));
+        return SelectQuery.builder(sq.columns().toArray(String[]::new))
+                .from(sq.name())
+                .where(sq.condition().map(condition -> CriteriaCondition.and(condition, notExpired)).orElse(notExpired))
+                .sort(sq.sorts().toArray(Sort<?>[]::new))
+                .skip(sq.skip())
+                .limit(sq.limit())
+                .build();
+    }
+
+    /**
+     * @return The current time as a value of the expiry attribute type
+     */
+    Object now(Class<?> type) {
+        return toValue(clock.instant(), type);
+    }
+
+    private Object toValue(Instant instant, Class<?> type) {
+        if (type == Instant.class) {
+            return instant;
+        } else if (type == LocalDateTime.class) {
+            return LocalDateTime.ofInstant(instant, clock.getZone());
+        } else if (type == Long.class || type == long.class) {
+            return instant.toEpochMilli();
+        }
+        throw new IllegalStateException("Unsupported type of the expiry attribute " + attributeName + ": " + type);
+    }
+
+    private Instant toInstant(Object value) {
+        if (value instanceof Instant instant) {
+            return instant;
+        } else if (value instanceof LocalDateTime dateTime) {
+            return dateTime.atZone(clock.getZone()).toInstant();
+        } else if (value instanceof Number millis) {
+            return Instant.ofEpochMilli(millis.longValue());
+        }
+        throw new IllegalStateException("Unsupported value of the expiry attribute " + attributeName + ": " + value);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+/**
+ * Formats of {@link PersistenceDatabaseManager#export exported} query results. Both formats start with the names
+ * of the exported columns, followed by the rows. Texts are encoded in UTF-8.
+ */
+public enum PersistenceExportFormat {
+
+    /**
+     * Comma separated values as defined by RFC 4180: a header line with the column names and a line for each row,
+     * lines end with CRLF. Values that contain a comma, a double quote or a line break are enclosed in double quotes,
+     * double quotes in them are doubled. Null values are empty.
+     */
+    CSV,
+    /**
+     * Length-prefixed binary format, with big-endian numbers. It starts with the number of columns as a 4-byte
+     * integer, followed by the name of each column as a string. Rows follow until the end of the stream, each with
+     * a value for each column. A value starts with a 1-byte type:
+     * <ul>
+     * <li>0 - null, without any other bytes</li>
+     * <li>1 - an integral number as an 8-byte integer</li>
+     * <li>2 - a floating point number as an 8-byte IEEE 754 double</li>
+     * <li>3 - a boolean as 1 byte, 1 for true and 0 for false</li>
+     * <li>4 - a string as a 4-byte length in bytes followed by the UTF-8 bytes. Values of other types are written
+     * as strings, e.g. dates in the ISO-8601 format and enums by their names.</li>
+     * </ul>
+     */
+    BINARY
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Writes rows of an export to a channel in a {@link PersistenceExportFormat}. Values are encoded straight into
+ * a single heap buffer, which is written to the channel whenever it's full. A heap buffer is cheap to allocate for
+ * each export, unlike a direct buffer, and channels copy it in chunks they cache themselves. Strings, integral numbers and
+ * booleans are encoded without creating intermediate objects, values of other types are converted to strings.
+ */
+final class PersistenceExportWriter {
+
+    /**
+     * Minimum size of the buffer, enough for the longest encoded number
+     */
+    static final int MIN_BUFFER_SIZE = 32;
+
+    private static final byte NULL = 0;
+    private static final byte INTEGRAL = 1;
+    private static final byte FLOATING_POINT = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte STRING = 4;
+    private static final String LONG_MIN_VALUE = String.valueOf(Long.MIN_VALUE);
+
+    private final WritableByteChannel channel;
+    private final PersistenceExportFormat format;
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[LONG_MIN_VALUE.length()];
+    private boolean firstInRow = true;
+
+    PersistenceExportWriter(WritableByteChannel channel, PersistenceExportFormat format, int bufferSize) {
+        this.channel = channel;
+        this.format = format;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    void header(List<String> columns) throws IOException {
+        if (format == PersistenceExportFormat.BINARY) {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(columns.size());
+            for (String column : columns) {
+                putBinaryString(column);
+            }
+        } else {
+            for (String column : columns) {
+                value(column);
+            }
+            endRow();
+        }
+    }
+
+    void value(Object value) throws IOException {
+        if (format == PersistenceExportFormat.BINARY) {
+            putBinary(value);
+        } else {
+            if (!firstInRow) {
+                ensureRemaining(1);
+                buffer.put((byte) ',');
+            }
+            firstInRow = false;
+            putCsv(value);
+        }
+    }
+
+    void endRow() throws IOException {
+        if (format == PersistenceExportFormat.CSV) {
+            ensureRemaining(2);
+            buffer.put((byte) '\r').put((byte) '\n');
+            firstInRow = true;
+        }
+    }
+
+    /**
+     * Writes the rest of the buffer to the channel.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putCsv(Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (isIntegral(value)) {
+            putDecimal(((Number) value).longValue());
+        } else if (value instanceof Boolean bool) {
+            putUtf8(bool ? "true" : "false", false);
+        } else {
+            final String text = toText(value);
+            final boolean quoted = needsQuotes(text);
+            if (quoted) {
+                ensureRemaining(1);
+                buffer.put((byte) '"');
+            }
+            putUtf8(text, quoted);
+            if (quoted) {
+                ensureRemaining(1);
+                buffer.put((byte) '"');
+            }
+        }
+    }
+
+    private void putBinary(Object value) throws IOException {
+        ensureRemaining(1 + Long.BYTES);
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (isIntegral(value)) {
+            buffer.put(INTEGRAL).putLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.put(FLOATING_POINT).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean bool) {
+            buffer.put(BOOLEAN).put((byte) (bool ? 1 : 0));
+        } else {
+            buffer.put(STRING);
+            putBinaryString(toText(value));
+        }
+    }
+
+    private void putBinaryString(String text) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(utf8Length(text));
+        putUtf8(text, false);
+    }
+
+    private void putDecimal(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putUtf8(LONG_MIN_VALUE, false);
+            return;
+        }
+        ensureRemaining(digits.length);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    /**
+     * @param doubleQuotes Whether double quotes are doubled, as in a quoted CSV value
+     */
+    private void putUtf8(String text, boolean doubleQuotes) throws IOException {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            ensureRemaining(4);
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+                if (doubleQuotes && c == '"') {
+                    buffer.put((byte) c);
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                        .put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like by String.getBytes
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(String text) {
+        final int length = text.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Whether the CSV value must be quoted. Empty strings are quoted, so that they differ from null values
+     */
+    private static boolean needsQuotes(String text) {
+        if (text.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static String toText(Object value) {
+        if (value instanceof String text) {
+            return text;
+        }
+        if (value instanceof Enum<?> constant) {
+            return constant.name();
+        }
+        return value.toString();
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Attributes of an entity that are loaded together with the entity whenever whole entities are selected by
+ * {@link PersistenceDatabaseManager}, e.g. lazy relationships and element collections that are always read
+ * after the entity is loaded. The attributes are passed to the persistence provider as a
+ * {@code jakarta.persistence.loadgraph} entity graph, so the provider loads them with the entities instead of
+ * executing a query for each entity.
+ * <p>
+ * Attributes of related entities and embeddables can be specified with a dot, e.g. {@code "author.address"}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PersistenceFetchPlan {
+
+    /**
+     * @return Names of the attributes to load with the entity
+     */
+    String[] value();
+}
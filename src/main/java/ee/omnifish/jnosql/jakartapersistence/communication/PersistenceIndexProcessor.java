@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceClassIndex.Kind;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * An annotation processor that writes the {@link PersistenceClassIndex index} of entities, embeddables and
+ * repositories of the compiled classes. When the index is present at runtime, {@link PersistenceClassScanner}
+ * reads it instead of scanning the whole classpath.
+ * <p>
+ * The processor isn't registered as a service, so that it doesn't run whenever this artifact is on the class path
+ * of a compilation. Enable it explicitly instead, e.g. with the {@code -processor} option of the compiler or
+ * the {@code annotationProcessors} of the Maven compiler plugin.
+ * <p>
+ * The index of a previous compilation into the same output directory is merged with the index of compiled classes,
+ * so that incremental builds, which compile only changed classes, keep the entries of the other classes. Entries of
+ * classes that were compiled again or don't exist anymore are replaced.
+ */
+@SupportedAnnotationTypes({
+    PersistenceIndexProcessor.ENTITY,
+    PersistenceIndexProcessor.EMBEDDABLE,
+    PersistenceIndexProcessor.REPOSITORY
+})
+public class PersistenceIndexProcessor extends AbstractProcessor {
+
+    static final String ENTITY = "jakarta.nosql.Entity";
+    static final String EMBEDDABLE = "jakarta.nosql.Embeddable";
+    static final String REPOSITORY = "jakarta.data.repository.Repository";
+
+    private static final Map<String, Kind> KINDS = Map.of(
+            ENTITY, Kind.ENTITY,
+            EMBEDDABLE, Kind.EMBEDDABLE,
+            REPOSITORY, Kind.REPOSITORY);
+
+    private final Set<String> entries = new TreeSet<>();
+    private final Set<String> compiledTypes = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getRootElements()) {
+            if (element instanceof TypeElement type) {
+                compiledTypes.add(binaryName(type));
+            }
+        }
+        for (TypeElement annotation : annotations) {
+            final Kind kind = KINDS.get(annotation.getQualifiedName().toString());
+            if (kind == null) {
+                continue;
+            }
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement type
+                        && (kind != Kind.REPOSITORY || type.getKind() == ElementKind.INTERFACE)) {
+                    entries.add(kind.entry(binaryName(type)));
+                }
+            }
+        }
+        if (roundEnv.processingOver()) {
+            final Set<String> index = new TreeSet<>(entries);
+            index.addAll(previousEntries());
+            if (!index.isEmpty()) {
+                writeIndex(index);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Entries of the index in the output directory, written by a previous compilation, without the entries
+     *         of classes that were compiled again or don't exist anymore
+     */
+    private Set<String> previousEntries() {
+        final Set<String> previous = new TreeSet<>();
+        final CharSequence content;
+        try {
+            content = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", PersistenceClassIndex.RESOURCE)
+                    .getCharContent(true);
+        } catch (IOException e) {
+            // there's no previous index
+            return previous;
+        }
+        content.toString().lines().map(String::strip).forEach(line -> {
+            final int separator = line.indexOf(':');
+            if (separator > 0 && !line.startsWith("#")) {
+                final String className = line.substring(separator + 1);
+                final String topLevelClassName = className.split("\\$")[0];
+                if (!compiledTypes.contains(topLevelClassName)
+                        && processingEnv.getElementUtils().getTypeElement(className.replace('$', '.')) != null) {
+                    previous.add(line);
+                }
+            }
+        });
+        return previous;
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private void writeIndex(Set<String> index) {
+        try {
+            final FileObject resource = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", PersistenceClassIndex.RESOURCE);
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String entry : index) {
+                    writer.write(entry);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write " + PersistenceClassIndex.RESOURCE + ": " + e);
+        }
+    }
+}
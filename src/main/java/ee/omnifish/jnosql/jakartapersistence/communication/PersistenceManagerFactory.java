@@ -16,6 +16,8 @@
 package ee.omnifish.jnosql.jakartapersistence.communication;
 
 import jakarta.persistence.EntityManagerFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import org.eclipse.jnosql.communication.semistructured.DatabaseManager;
 import org.eclipse.jnosql.communication.semistructured.DatabaseManagerFactory;
 
@@ -25,20 +27,82 @@ import org.eclipse.jnosql.communication.semistructured.DatabaseManagerFactory;
  */
 public class PersistenceManagerFactory implements DatabaseManagerFactory {
 
-    private EntityManagerFactory emf;
+    private final PersistenceBootstrap bootstrap;
+    private final PersistenceOptions options;
+    private final PersistenceQueryCache queryCache;
+    private final PersistenceEntityCache entityCache;
+    private final PersistenceMetrics metrics;
+    private final PersistenceOperationListener listener;
+    private final Executor executor;
+    private final ExecutorService defaultExecutor;
+    private final PersistenceDatabaseManager sharedManager;
 
     public PersistenceManagerFactory(EntityManagerFactory emf) {
-        this.emf = emf;
+        this(emf, PersistenceOptions.defaults());
     }
 
+    PersistenceManagerFactory(EntityManagerFactory emf, PersistenceOptions options) {
+        this(PersistenceBootstrap.of(PersistenceUnits.of(emf)), options);
+    }
+
+    /**
+     * Creates the persistence units of the bootstrap now, in the background or on first use, depending on
+     * {@link PersistenceOptions#bootstrapMode()}.
+     */
+    PersistenceManagerFactory(PersistenceBootstrap bootstrap, PersistenceOptions options) {
+        this.bootstrap = bootstrap;
+        this.options = options;
+        this.queryCache = new PersistenceQueryCache(options.queryCacheSize());
+        this.entityCache = options.newEntityCache();
+        this.metrics = new PersistenceMetrics(queryCache, options.slowOperationThreshold());
+        this.listener = PersistenceOperationListeners.load(metrics);
+        this.defaultExecutor = options.executor().isPresent() ? null : PersistenceOptions.newDefaultExecutor();
+        this.executor = options.executor().orElse(defaultExecutor);
+        // collects writes and purges expired entities for all managers of this factory
+        this.sharedManager = new PersistenceDatabaseManager(bootstrap, queryCache, entityCache, options, executor,
+                listener, null);
+        if (options.bootstrapMode() == PersistenceBootstrap.Mode.EAGER) {
+            try {
+                bootstrap.units();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        } else if (options.bootstrapMode() == PersistenceBootstrap.Mode.BACKGROUND) {
+            bootstrap.warmUp(executor);
+        }
+    }
+
+    /**
+     * @return Cache of prepared queries shared by all database managers created by this factory
+     */
+    public PersistenceQueryCache queryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return Metrics of operations of all database managers created by this factory
+     */
+    public PersistenceMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Commits collected writes, stops purging expired entities, shuts down the default executor and closes
+     * the persistence units.
+     */
     @Override
     public void close() {
-        emf.close();
+        sharedManager.close();
+        if (defaultExecutor != null) {
+            defaultExecutor.shutdown();
+        }
+        bootstrap.close();
     }
 
     @Override
     public DatabaseManager apply(String t) {
-        return new PersistenceDatabaseManager(emf.createEntityManager(), emf.getName());
+        return new PersistenceDatabaseManager(bootstrap, queryCache, entityCache, options, executor, listener, sharedManager);
     }
 
 }
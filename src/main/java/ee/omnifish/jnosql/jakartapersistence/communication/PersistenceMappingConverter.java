@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Alternative;
+import jakarta.inject.Inject;
+import jakarta.interceptor.Interceptor;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+import org.eclipse.jnosql.mapping.core.Converters;
+import org.eclipse.jnosql.mapping.metadata.EntitiesMetadata;
+import org.eclipse.jnosql.mapping.semistructured.EntityConverter;
+
+/**
+ * Entity converter of the mapping layer that passes persistence entities returned by
+ * {@link PersistenceDatabaseManager} straight to the caller. A communication entity that wraps a persistence entity
+ * is converted by returning the wrapped entity, without reading its elements and creating a new entity by
+ * reflection. Other communication entities are converted by the default JNoSQL converter.
+ * <p>
+ * As an enabled alternative, it replaces the converter of the whole application, but it behaves like the default
+ * converter for entities of other databases. A wrapped entity is owned by the caller, as a mapped copy would be:
+ * each read creates entities in its own persistence context, and the
+ * {@link PersistenceConfigurations#ENTITY_CACHE_ENTITIES entity cache} returns copies of cached entities.
+ */
+@ApplicationScoped
+@Alternative
+@Priority(Interceptor.Priority.LIBRARY_AFTER)
+public class PersistenceMappingConverter extends EntityConverter {
+
+    @Inject
+    private EntitiesMetadata entities;
+
+    @Inject
+    private Converters converters;
+
+    @Override
+    protected EntitiesMetadata entities() {
+        return entities;
+    }
+
+    @Override
+    protected Converters converters() {
+        return converters;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T toEntity(CommunicationEntity entity) {
+        final Object persistenceEntity = PersistenceEntityConverter.wrappedEntity(entity);
+        return persistenceEntity != null ? (T) persistenceEntity : super.toEntity(entity);
+    }
+
+    @Override
+    public <T> T toEntity(Class<T> type, CommunicationEntity entity) {
+        final Object persistenceEntity = PersistenceEntityConverter.wrappedEntity(entity);
+        return type.isInstance(persistenceEntity) ? type.cast(persistenceEntity) : super.toEntity(type, entity);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * In-memory metrics of the operations of all database managers created by the same
+ * {@link PersistenceManagerFactory}: the number of operations, failures and rows, and a latency histogram for
+ * each entity and operation. Recording an operation only updates a few {@link LongAdder}s, so it adds very little
+ * overhead and doesn't contend between threads.
+ * <p>
+ * Operations that take longer than {@link PersistenceConfigurations#SLOW_OPERATION_THRESHOLD} are logged as
+ * warnings together with their query.
+ */
+public final class PersistenceMetrics implements PersistenceOperationListener {
+
+    /**
+     * Number of buckets of latency histograms
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private static final Logger LOGGER = Logger.getLogger(PersistenceMetrics.class.getName());
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final PersistenceQueryCache queryCache;
+    private final long slowThresholdNanos;
+    private final ConcurrentMap<String, OperationStats[]> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param queryCache The query cache of the database managers
+     * @param slowThreshold Operations that take at least this long are logged, zero disables logging
+     */
+    public PersistenceMetrics(PersistenceQueryCache queryCache, Duration slowThreshold) {
+        this.queryCache = queryCache;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+    }
+
+    @Override
+    public void operationCompleted(Operation operation, String entityName, Object query, long durationNanos, long rows,
+            Throwable failure) {
+        OperationStats[] entityStats = stats.get(entityName);
+        if (entityStats == null) {
+            entityStats = stats.computeIfAbsent(entityName, name -> newStats());
+        }
+        entityStats[operation.ordinal()].record(durationNanos, rows, failure != null);
+        if (slowThresholdNanos > 0 && durationNanos >= slowThresholdNanos) {
+            LOGGER.warning(() -> "Slow " + operation + " of " + entityName + " took "
+                    + Duration.ofNanos(durationNanos).toMillis() + " ms" + (query == null ? "" : ": " + query));
+        }
+    }
+
+    /**
+     * @return Names of entities with recorded operations
+     */
+    public Set<String> entityNames() {
+        return Set.copyOf(stats.keySet());
+    }
+
+    /**
+     * @return Metrics of the operation on the entity, with all values 0 if no such operation was recorded
+     */
+    public Snapshot snapshot(String entityName, Operation operation) {
+        final OperationStats[] entityStats = stats.get(entityName);
+        return entityStats == null ? new Snapshot(0, 0, 0, 0, 0, new long[HISTOGRAM_BUCKETS])
+                : entityStats[operation.ordinal()].snapshot();
+    }
+
+    /**
+     * @return Ratio of queries found in the query cache to all prepared queries, or 0 if no query was prepared
+     */
+    public double queryCacheHitRate() {
+        final long hits = queryCache.hits();
+        final long total = hits + queryCache.misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private static OperationStats[] newStats() {
+        final OperationStats[] entityStats = new OperationStats[OPERATIONS.length];
+        for (int i = 0; i < entityStats.length; i++) {
+            entityStats[i] = new OperationStats();
+        }
+        return entityStats;
+    }
+
+    /**
+     * Bucket of the latency histogram. Bucket {@code i} counts operations that took at least {@code 2^i}
+     * and less than {@code 2^(i+1)} microseconds, the first bucket also faster operations and the last bucket
+     * also slower operations.
+     */
+    static int bucket(long durationNanos) {
+        final long micros = durationNanos / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Metrics of an operation on an entity at the time the snapshot was taken.
+     *
+     * @param count Number of operations
+     * @param failures Number of operations that threw an exception
+     * @param rows Number of entities read, written, deleted or counted by all operations
+     * @param totalNanos Sum of durations of all operations
+     * @param maxNanos Duration of the slowest operation
+     * @param histogram Number of operations in each latency bucket, see {@link #upperBoundNanos(int)}
+     */
+    public record Snapshot(long count, long failures, long rows, long totalNanos, long maxNanos, long[] histogram) {
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100
+         * @return Upper bound of the histogram bucket that contains the percentile, or 0 if there are no operations
+         */
+        public long percentileNanos(double percentile) {
+            final long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBoundNanos(i), maxNanos);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return Exclusive upper bound of the durations counted in the histogram bucket
+         */
+        public static long upperBoundNanos(int bucket) {
+            return bucket == HISTOGRAM_BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) * 1000;
+        }
+    }
+
+    private static final class OperationStats {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+        OperationStats() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        void record(long durationNanos, long rowCount, boolean failed) {
+            count.increment();
+            if (failed) {
+                failures.increment();
+            }
+            rows.add(rowCount);
+            totalNanos.add(durationNanos);
+            maxNanos.accumulate(durationNanos);
+            histogram[bucket(durationNanos)].increment();
+        }
+
+        Snapshot snapshot() {
+            final long[] buckets = new long[histogram.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram[i].sum();
+            }
+            return new Snapshot(count.sum(), failures.sum(), rows.sum(), totalNanos.sum(), maxNanos.get(), buckets);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+/**
+ * Receives a notification after each operation of {@link PersistenceDatabaseManager}, e.g. to record metrics or
+ * traces. Implementations registered as services with {@link java.util.ServiceLoader} are notified together with
+ * the {@link PersistenceMetrics metrics} of the {@link PersistenceManagerFactory}.
+ * <p>
+ * Listeners are called on the thread that executed the operation, so they must be thread-safe and fast.
+ * Exceptions thrown by listeners are logged and ignored.
+ */
+public interface PersistenceOperationListener {
+
+    /**
+     * Operations of the database manager
+     */
+    enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE,
+        SELECT,
+        COUNT
+    }
+
+    /**
+     * Called after an operation completed or failed. Streams of entities read in windows are reported
+     * when all entities were read, reading a window failed, or the stream was closed, whichever comes first.
+     * <p>
+     * Each operation runs in its own entity manager, but the number of entities managed by it is not reported,
+     * because the Persistence API doesn't expose it.
+     *
+     * @param operation The operation
+     * @param entityName Name of the entity
+     * @param query The select or delete query, or null for insert and update
+     * @param durationNanos Duration of the operation in nanoseconds
+     * @param rows Number of entities read, written or deleted, or the number of entities counted by count
+     * @param failure The exception thrown by the operation, or null if the operation succeeded
+     */
+    void operationCompleted(Operation operation, String entityName, Object query, long durationNanos, long rows,
+            Throwable failure);
+}
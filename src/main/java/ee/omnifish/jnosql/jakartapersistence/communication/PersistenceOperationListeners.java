@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notifies the metrics and the listeners registered as services about each operation.
+ */
+final class PersistenceOperationListeners implements PersistenceOperationListener {
+
+    private static final Logger LOGGER = Logger.getLogger(PersistenceOperationListeners.class.getName());
+
+    private final PersistenceOperationListener[] listeners;
+
+    private PersistenceOperationListeners(List<PersistenceOperationListener> listeners) {
+        this.listeners = listeners.toArray(PersistenceOperationListener[]::new);
+    }
+
+    /**
+     * @return The metrics alone if no listeners are registered as services, otherwise a listener that notifies
+     * all of them
+     */
+    static PersistenceOperationListener load(PersistenceMetrics metrics) {
+        final List<PersistenceOperationListener> listeners = new ArrayList<>();
+        listeners.add(metrics);
+        ServiceLoader.load(PersistenceOperationListener.class).forEach(listeners::add);
+        return listeners.size() == 1 ? metrics : new PersistenceOperationListeners(listeners);
+    }
+
+    @Override
+    public void operationCompleted(Operation operation, String entityName, Object query, long durationNanos, long rows,
+            Throwable failure) {
+        for (PersistenceOperationListener listener : listeners) {
+            try {
+                listener.operationCompleted(operation, entityName, query, durationNanos, rows, failure);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Listener " + listener + " failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.ASYNC_EXECUTOR;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.BATCH_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.BOOTSTRAP;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.DELETE_REMOVE_FALLBACK;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.ENTITY_CACHE_ENTITIES;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.ENTITY_CACHE_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.ENTITY_CACHE_TTL;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.ENTITY_UNITS;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.EXPORT_BUFFER_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.EXPORT_WINDOW_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.FETCH_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.QUERY_CACHE_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.REPLICA_BALANCING;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.REPLICA_UNITS;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.SLOW_OPERATION_THRESHOLD;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.STREAM_WINDOW_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.TTL_ATTRIBUTE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.TTL_PURGE_BATCH_SIZE;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.TTL_PURGE_INTERVAL;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.WRITE_BEHIND_DELAY;
+import static ee.omnifish.jnosql.jakartapersistence.communication.PersistenceConfigurations.WRITE_BEHIND_SIZE;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.eclipse.jnosql.communication.Settings;
+
+/**
+ * Options of the driver resolved from {@link Settings}, with defaults for options that are not set.
+ */
+final class PersistenceOptions {
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final int DEFAULT_ENTITY_CACHE_SIZE = 1000;
+    static final int DEFAULT_ENTITY_CACHE_TTL = 60;
+    static final int DEFAULT_WRITE_BEHIND_DELAY = 10;
+    static final int DEFAULT_TTL_PURGE_INTERVAL = 60;
+    static final int DEFAULT_TTL_PURGE_BATCH_SIZE = 500;
+    static final int DEFAULT_EXPORT_BUFFER_SIZE = 65536;
+    static final int DEFAULT_EXPORT_WINDOW_SIZE = 10000;
+
+    private final int batchSize;
+    private final boolean batchSizeConfigured;
+    private final int queryCacheSize;
+    private final boolean deleteRemoveFallback;
+    private final int fetchSize;
+    private final int streamWindowSize;
+    private final Executor executor;
+    private final Set<String> entityCacheEntities;
+    private final int entityCacheSize;
+    private final Duration entityCacheTtl;
+    private final Duration slowOperationThreshold;
+    private final int writeBehindSize;
+    private final Duration writeBehindDelay;
+    private final String ttlAttribute;
+    private final Duration ttlPurgeInterval;
+    private final int ttlPurgeBatchSize;
+    private final List<String> replicaUnits;
+    private final PersistenceUnits.Balancing replicaBalancing;
+    private final Map<String, String> entityUnits;
+    private final PersistenceBootstrap.Mode bootstrapMode;
+    private final int exportBufferSize;
+    private final int exportWindowSize;
+
+    PersistenceOptions(Settings settings) {
+        this.batchSizeConfigured = settings.containsKey(BATCH_SIZE.get());
+        this.batchSize = intValue(settings, BATCH_SIZE, DEFAULT_BATCH_SIZE, 1);
+        this.queryCacheSize = intValue(settings, QUERY_CACHE_SIZE, PersistenceQueryCache.DEFAULT_MAX_SIZE, 0);
+        this.deleteRemoveFallback = settings.get(DELETE_REMOVE_FALLBACK.get(), Boolean.class).orElse(false);
+        this.fetchSize = intValue(settings, FETCH_SIZE, 0, 0);
+        this.streamWindowSize = intValue(settings, STREAM_WINDOW_SIZE, 0, 0);
+        this.executor = settings.get(ASYNC_EXECUTOR.get())
+                .map(value -> {
+                    if (value instanceof Executor configured) {
+                        return configured;
+                    }
+                    throw new IllegalArgumentException("The value of " + ASYNC_EXECUTOR.get()
+                            + " must be an instance of " + Executor.class.getName() + ", but was " + value);
+                })
+                .orElse(null);
+        this.entityCacheEntities = settings.get(ENTITY_CACHE_ENTITIES.get(), String.class)
+                .map(names -> Set.copyOf(names(names)))
+                .orElse(Set.of());
+        this.entityCacheSize = intValue(settings, ENTITY_CACHE_SIZE, DEFAULT_ENTITY_CACHE_SIZE, 0);
+        this.entityCacheTtl = Duration.ofSeconds(intValue(settings, ENTITY_CACHE_TTL, DEFAULT_ENTITY_CACHE_TTL, 0));
+        this.slowOperationThreshold = Duration.ofMillis(intValue(settings, SLOW_OPERATION_THRESHOLD, 0, 0));
+        this.writeBehindSize = intValue(settings, WRITE_BEHIND_SIZE, 0, 0);
+        this.writeBehindDelay = Duration.ofMillis(intValue(settings, WRITE_BEHIND_DELAY, DEFAULT_WRITE_BEHIND_DELAY, 1));
+        this.ttlAttribute = settings.get(TTL_ATTRIBUTE.get(), String.class)
+                .map(String::strip)
+                .filter(name -> !name.isEmpty())
+                .orElse(null);
+        this.ttlPurgeInterval = Duration.ofSeconds(intValue(settings, TTL_PURGE_INTERVAL, DEFAULT_TTL_PURGE_INTERVAL, 0));
+        this.ttlPurgeBatchSize = intValue(settings, TTL_PURGE_BATCH_SIZE, DEFAULT_TTL_PURGE_BATCH_SIZE, 1);
+        this.replicaUnits = settings.get(REPLICA_UNITS.get(), String.class)
+                .map(PersistenceOptions::names)
+                .orElse(List.of());
+        this.replicaBalancing = settings.get(REPLICA_BALANCING.get(), String.class)
+                .map(String::strip)
+                .map(PersistenceUnits.Balancing::of)
+                .orElse(PersistenceUnits.Balancing.ROUND_ROBIN);
+        this.entityUnits = settings.get(ENTITY_UNITS.get(), String.class)
+                .map(PersistenceOptions::entityUnits)
+                .orElse(Map.of());
+        this.bootstrapMode = settings.get(BOOTSTRAP.get(), String.class)
+                .map(String::strip)
+                .map(PersistenceBootstrap.Mode::of)
+                .orElse(PersistenceBootstrap.Mode.EAGER);
+        this.exportBufferSize = intValue(settings, EXPORT_BUFFER_SIZE, DEFAULT_EXPORT_BUFFER_SIZE,
+                PersistenceExportWriter.MIN_BUFFER_SIZE);
+        this.exportWindowSize = intValue(settings, EXPORT_WINDOW_SIZE, DEFAULT_EXPORT_WINDOW_SIZE, 1);
+    }
+
+    static PersistenceOptions defaults() {
+        return new PersistenceOptions(Settings.settings());
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    int queryCacheSize() {
+        return queryCacheSize;
+    }
+
+    boolean deleteRemoveFallback() {
+        return deleteRemoveFallback;
+    }
+
+    int fetchSize() {
+        return fetchSize;
+    }
+
+    int streamWindowSize() {
+        return streamWindowSize;
+    }
+
+    /**
+     * @return The configured executor for asynchronous operations, or an empty optional if the default executor
+     * should be used
+     */
+    Optional<Executor> executor() {
+        return Optional.ofNullable(executor);
+    }
+
+    Duration slowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    /**
+     * @return Maximum number of single writes committed together, or 0 if write-behind is disabled
+     */
+    int writeBehindSize() {
+        return writeBehindSize;
+    }
+
+    Duration writeBehindDelay() {
+        return writeBehindDelay;
+    }
+
+    /**
+     * @return Interval of purging expired entities, zero if they are not purged in the background
+     */
+    Duration ttlPurgeInterval() {
+        return ttlPurgeInterval;
+    }
+
+    int ttlPurgeBatchSize() {
+        return ttlPurgeBatchSize;
+    }
+
+    /**
+     * @return Names of persistence units that are read-only replicas of the primary unit
+     */
+    List<String> replicaUnits() {
+        return replicaUnits;
+    }
+
+    PersistenceUnits.Balancing replicaBalancing() {
+        return replicaBalancing;
+    }
+
+    /**
+     * @return Names of persistence units by the names of entities they store, for entities not stored in
+     * the primary unit
+     */
+    Map<String, String> entityUnits() {
+        return entityUnits;
+    }
+
+    PersistenceBootstrap.Mode bootstrapMode() {
+        return bootstrapMode;
+    }
+
+    int exportBufferSize() {
+        return exportBufferSize;
+    }
+
+    int exportWindowSize() {
+        return exportWindowSize;
+    }
+
+    /**
+     * Creates the expiry of entities configured by these options, with the system clock.
+     */
+    PersistenceExpiry newExpiry() {
+        return new PersistenceExpiry(ttlAttribute, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates the entity cache configured by these options. The cache is disabled if no entities are configured.
+     */
+    PersistenceEntityCache newEntityCache() {
+        return new PersistenceEntityCache(entityCacheEntities, entityCacheSize, entityCacheTtl);
+    }
+
+    /**
+     * Creates the default executor for asynchronous operations. Virtual threads are created reflectively,
+     * so that the driver still runs on Java 17.
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                final Thread thread = new Thread(task, "jnosql-jakarta-persistence-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return Query hints that set the JDBC fetch size in the known providers, or no hints if it's not configured
+     */
+    Map<String, Object> fetchSizeHints() {
+        if (fetchSize == 0) {
+            return Map.of();
+        }
+        return Map.of("eclipselink.jdbc.fetch-size", fetchSize,
+                "org.hibernate.fetchSize", fetchSize);
+    }
+
+    /**
+     * @return Properties passed to the persistence provider when the EntityManagerFactory is created. They enable
+     * JDBC batch writing of the known providers if the batch size is configured explicitly, other properties
+     * are left to persistence.xml.
+     */
+    Map<String, Object> persistenceUnitProperties() {
+        final Map<String, Object> properties = new HashMap<>();
+        if (batchSizeConfigured) {
+            properties.put("eclipselink.jdbc.batch-writing", "JDBC");
+            properties.put("eclipselink.jdbc.batch-writing.size", String.valueOf(batchSize));
+            properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+            properties.put("hibernate.order_inserts", "true");
+            properties.put("hibernate.order_updates", "true");
+        }
+        return properties;
+    }
+
+    private static List<String> names(String names) {
+        return Arrays.stream(names.split(","))
+                .map(String::strip)
+                .filter(name -> !name.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    private static Map<String, String> entityUnits(String value) {
+        final Map<String, String> units = new HashMap<>();
+        for (String entry : names(value)) {
+            final String[] entityAndUnit = entry.split("=");
+            if (entityAndUnit.length != 2 || entityAndUnit[0].isBlank() || entityAndUnit[1].isBlank()) {
+                throw new IllegalArgumentException("The value of " + ENTITY_UNITS.get()
+                        + " must be a list of Entity=unit, but was " + value);
+            }
+            units.put(entityAndUnit[0].strip(), entityAndUnit[1].strip());
+        }
+        return Map.copyOf(units);
+    }
+
+    private static int intValue(Settings settings, PersistenceConfigurations key, int defaultValue, int minimum) {
+        final int value = settings.get(key.get(), Integer.class).orElse(defaultValue);
+        if (value < minimum) {
+            throw new IllegalArgumentException("The value of " + key.get() + " must be at least " + minimum
+                    + ", but was " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceQueryConverter.QueryParameter;
+import jakarta.data.Sort;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CommonAbstractCriteria;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
+import jakarta.persistence.criteria.CriteriaQuery;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+
+/**
+ * A bounded cache of criteria queries, keyed by the shape of a JNoSQL query. A shape consists of the kind of
+ * the query, the entity name, the selected columns, the
+ * {@link PersistenceQueryConverter#shapeOf(CriteriaCondition) structure of the condition} and the sorts.
+ * Values of conditions are bound to parameters of the cached query, so repeated queries that differ only
+ * in values don't build the criteria query again. Cached queries are also registered as named queries of the
+ * persistence unit when they are first executed, so the provider translates each of them to SQL only once.
+ * <p>
+ * Queries are cached separately for each persistence unit and built with the criteria builder of its entity
+ * manager factory, so that a query built for one unit is never executed by entity managers of another unit,
+ * e.g. of a replica.
+ * <p>
+ * When the cache is full, the least recently used query is evicted. The cache is thread-safe and shared by all
+ * database managers created by the same {@link PersistenceManagerFactory}.
+ */
+public final class PersistenceQueryCache {
+
+    private static final String NAMED_QUERY_PREFIX = "jnosql:";
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final int maxSize;
+    private final Map<Key, PreparedQuery<?>> queries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PersistenceQueryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public PersistenceQueryCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.queries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedQuery<?>> eldest) {
+                return size() > PersistenceQueryCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return Number of queries found in the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of queries that had to be built because they were not found in the cache
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public int size() {
+        synchronized (queries) {
+            return queries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (queries) {
+            queries.clear();
+        }
+    }
+
+    /**
+     * Returns the cached query for the shape in the persistence unit, or builds and caches a new one. The query
+     * is built outside of the lock, so two threads may build the same query concurrently. Only one of them is
+     * cached then, and both threads use the cached one.
+     *
+     * @param unit Entity manager factory of the entity managers that execute the query
+     * @param builder Builds the query with the criteria builder of the unit
+     */
+    @SuppressWarnings("unchecked")
+    <C extends CommonAbstractCriteria> PreparedQuery<C> get(EntityManagerFactory unit, QueryShape shape,
+            Function<CriteriaBuilder, PreparedQuery<C>> builder) {
+        final Key key = new Key(unit, shape);
+        PreparedQuery<C> query;
+        synchronized (queries) {
+            query = (PreparedQuery<C>) queries.get(key);
+        }
+        if (query != null) {
+            hits.increment();
+            return query;
+        }
+        misses.increment();
+        query = builder.apply(unit.getCriteriaBuilder());
+        if (maxSize > 0) {
+            final PreparedQuery<C> named = query.named(NAMED_QUERY_PREFIX + shape);
+            synchronized (queries) {
+                final PreparedQuery<C> cached = (PreparedQuery<C>) queries.putIfAbsent(key, named);
+                return cached != null ? cached : named;
+            }
+        }
+        return query;
+    }
+
+    private record Key(EntityManagerFactory unit, QueryShape shape) {
+    }
+
+    /**
+     * Key of a cached query.
+     *
+     * @param kind Kind of the query, e.g. select or count
+     * @param entityName Name of the entity
+     * @param columns Selected columns, or an empty list if whole entities are selected
+     * @param condition Shape of the condition, or an empty string if there's no condition
+     * @param sorts Sorts of the query
+     */
+    record QueryShape(String kind, String entityName, List<String> columns, String condition, List<Sort<?>> sorts) {
+
+        static QueryShape of(String kind, String entityName, Optional<CriteriaCondition> condition, List<Sort<?>> sorts) {
+            return of(kind, entityName, List.of(), condition, sorts);
+        }
+
+        static QueryShape of(String kind, String entityName, List<String> columns, Optional<CriteriaCondition> condition,
+                List<Sort<?>> sorts) {
+            return new QueryShape(kind, entityName, List.copyOf(columns),
+                    condition.map(PersistenceQueryConverter::shapeOf).orElse(""), List.copyOf(sorts));
+        }
+    }
+
+    /**
+     * A criteria query with parameters for all condition values. The criteria query is never modified after it's
+     * prepared, so it's safe to share it among threads, and each execution creates a new query from it.
+     * <p>
+     * A cached query has a name, which is derived from its shape. It's registered as a named query in the entity
+     * manager factory that executes it first, and executed as that named query since then, so the provider
+     * doesn't translate the criteria query again. Queries prepared again for the same shape, e.g. by another cache
+     * or after they were evicted, replace the named query with the same name. That's safe, because parameters are
+     * named by their position and values are bound by those names, which are the same in all queries of a shape.
+     */
+    static final class PreparedQuery<C extends CommonAbstractCriteria> {
+
+        private final C criteria;
+        private final List<QueryParameter> parameters;
+        private final String name;
+        private volatile EntityManagerFactory registeredIn;
+
+        /**
+         * @param criteria The criteria query
+         * @param parameters Parameters of the query in the order of
+         *                   {@link PersistenceQueryConverter#parameterValues(CriteriaCondition)}
+         */
+        PreparedQuery(C criteria, List<QueryParameter> parameters) {
+            this(criteria, parameters, null);
+        }
+
+        private PreparedQuery(C criteria, List<QueryParameter> parameters, String name) {
+            this.criteria = criteria;
+            this.parameters = parameters;
+            this.name = name;
+        }
+
+        C criteria() {
+            return criteria;
+        }
+
+        List<QueryParameter> parameters() {
+            return parameters;
+        }
+
+        /**
+         * Creates a query from the criteria query, which must be a {@link CriteriaQuery} with the result type
+         * {@code T}, and binds the values of the condition to its parameters.
+         */
+        @SuppressWarnings("unchecked")
+        <T> TypedQuery<T> createQuery(EntityManager em, Optional<CriteriaCondition> condition) {
+            final CriteriaQuery<T> criteriaQuery = (CriteriaQuery<T>) criteria;
+            if (name == null) {
+                return bind(em.createQuery(criteriaQuery), condition);
+            }
+            register(em, () -> em.createQuery(criteriaQuery));
+            return bind(em.createNamedQuery(name, criteriaQuery.getResultType()), condition);
+        }
+
+        /**
+         * Creates a query from the criteria query, which must be a {@link CriteriaDelete}, and binds the values
+         * of the condition to its parameters.
+         */
+        Query createDelete(EntityManager em, Optional<CriteriaCondition> condition) {
+            final CriteriaDelete<?> criteriaDelete = (CriteriaDelete<?>) criteria;
+            if (name == null) {
+                return bind(em.createQuery(criteriaDelete), condition);
+            }
+            register(em, () -> em.createQuery(criteriaDelete));
+            return bind(em.createNamedQuery(name), condition);
+        }
+
+        private PreparedQuery<C> named(String queryName) {
+            return new PreparedQuery<>(criteria, parameters, queryName);
+        }
+
+        private void register(EntityManager em, Supplier<Query> query) {
+            final EntityManagerFactory emf = em.getEntityManagerFactory();
+            if (registeredIn != emf) {
+                emf.addNamedQuery(name, query.get());
+                registeredIn = emf;
+            }
+        }
+
+        private <Q extends Query> Q bind(Q query, Optional<CriteriaCondition> condition) {
+            condition.ifPresent(c -> {
+                final List<Object> values = PersistenceQueryConverter.parameterValues(c);
+                for (int i = 0; i < parameters.size(); i++) {
+                    parameters.get(i).bind(query, values.get(i));
+                }
+            });
+            return query;
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.data.Sort;
+import jakarta.data.page.PageRequest;
+import jakarta.persistence.Query;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.ParameterExpression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import java.lang.invoke.MethodType;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jnosql.communication.TypeReference;
+import org.eclipse.jnosql.communication.Value;
+import org.eclipse.jnosql.communication.ValueUtil;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.Element;
+
+/**
+ * Converts the JNoSQL query model (conditions and sorts) into Jakarta Persistence Criteria API
+ * predicates and orders, so that filtering and sorting are executed by the database.
+ * <p>
+ * Condition values are never embedded into the criteria query. Each value is represented by a
+ * {@link ParameterExpression}, in the order in which {@link #toPredicate(CriteriaCondition)} visits
+ * the condition tree. The same order is used by {@link #parameterValues(CriteriaCondition)}, so a
+ * criteria query built once for a {@link #shapeOf(CriteriaCondition) condition shape} can be reused
+ * for any condition with the same shape.
+ */
+final class PersistenceQueryConverter {
+
+    /**
+     * Name used by JNoSQL for the identifier of an entity if the id field doesn't specify a name
+     */
+    static final String ID_ELEMENT_NAME = "_id";
+
+    private final CriteriaBuilder builder;
+    private final Root<?> root;
+    private final Map<String, Expression<?>> aliases;
+    private final String parameterPrefix;
+    private final List<QueryParameter> parameters = new ArrayList<>();
+
+    PersistenceQueryConverter(CriteriaBuilder builder, Root<?> root) {
+        this(builder, root, Map.of(), "p");
+    }
+
+    /**
+     * @param aliases Expressions referred to by conditions and sorts with the alias instead of an attribute name,
+     *                e.g. aggregates in a having condition
+     * @param parameterPrefix Prefix of the names of parameters, followed by their position. It must differ from
+     *                        the prefix of other converters of the same query
+     */
+    PersistenceQueryConverter(CriteriaBuilder builder, Root<?> root, Map<String, Expression<?>> aliases,
+            String parameterPrefix) {
+        this.builder = builder;
+        this.root = root;
+        this.aliases = aliases;
+        this.parameterPrefix = parameterPrefix;
+    }
+
+    Predicate toPredicate(CriteriaCondition condition) {
+        final Element element = condition.element();
+        return switch (condition.condition()) {
+            case EQUALS -> {
+                final Expression<?> expression = expression(element.name());
+                yield isNullValue(element) ? builder.isNull(expression) : builder.equal(expression, parameter(expression));
+            }
+            case GREATER_THAN, GREATER_EQUALS_THAN, LESSER_THAN, LESSER_EQUALS_THAN ->
+                compare(condition, expression(element.name()));
+            case IN -> {
+                final Expression<?> expression = expression(element.name());
+                yield isEmptyList(element) ? builder.disjunction() : expression.in(collectionParameter(expression));
+            }
+            case LIKE -> builder.like(expression(element.name()).as(String.class), likeParameter());
+            case BETWEEN -> between(expression(element.name()));
+            case NOT -> builder.not(toPredicate(element.get(CriteriaCondition.class)));
+            case AND -> builder.and(toPredicates(element));
+            case OR -> builder.or(toPredicates(element));
+        };
+    }
+
+    List<Order> toOrders(List<Sort<?>> sorts) {
+        return sorts.stream()
+                .map(this::toOrder)
+                .toList();
+    }
+
+    /**
+     * @return Parameters created by {@link #toPredicate(CriteriaCondition)} so far, in the order of their creation
+     */
+    List<QueryParameter> parameters() {
+        return List.copyOf(parameters);
+    }
+
+    /**
+     * @return The expression with the alias, or the path of the attribute with the name
+     */
+    Expression<?> expression(String name) {
+        final Expression<?> aliased = aliases.get(name);
+        return aliased != null ? aliased : path(name);
+    }
+
+    Path<?> path(String name) {
+        if (ID_ELEMENT_NAME.equals(name) && !hasAttribute(name)) {
+            return root.get(PersistenceEntityConverter.idAttribute(root.getModel()).getName());
+        }
+        Path<?> path = root;
+        for (String attribute : name.split("\\.")) {
+            path = path.get(attribute);
+        }
+        return path;
+    }
+
+    /**
+     * Creates a seek condition that matches rows after the cursor in the order of the sorts, e.g. for sorts by
+     * {@code a} and {@code b} ascending: {@code a >= ?1 AND (a > ?1 OR (a = ?1 AND b > ?2))}. The leading range
+     * on the first sort key lets the database use an index on it to skip the preceding rows.
+     *
+     * @param sorts Sorts of the query, in the direction in which rows are read
+     * @param cursor Values of the sort keys of the last row before the requested rows
+     */
+    static CriteriaCondition seekCondition(List<Sort<?>> sorts, PageRequest.Cursor cursor) {
+        if (cursor.size() != sorts.size()) {
+            throw new IllegalArgumentException("The cursor " + cursor + " must have a key for each sort: " + sorts);
+        }
+        final List<CriteriaCondition> alternatives = new ArrayList<>(sorts.size());
+        for (int i = 0; i < sorts.size(); i++) {
+            final List<CriteriaCondition> terms = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                terms.add(CriteriaCondition.eq(sorts.get(j).property(), cursor.get(j)));
+            }
+            final Sort<?> sort = sorts.get(i);
+            terms.add(sort.isAscending()
+                    ? CriteriaCondition.gt(sort.property(), cursor.get(i))
+                    : CriteriaCondition.lt(sort.property(), cursor.get(i)));
+            alternatives.add(terms.size() == 1 ? terms.get(0) : CriteriaCondition.and(terms.toArray(CriteriaCondition[]::new)));
+        }
+        if (alternatives.size() == 1) {
+            return alternatives.get(0);
+        }
+        final Sort<?> leading = sorts.get(0);
+        final CriteriaCondition leadingRange = leading.isAscending()
+                ? CriteriaCondition.gte(leading.property(), cursor.get(0))
+                : CriteriaCondition.lte(leading.property(), cursor.get(0));
+        return CriteriaCondition.and(leadingRange, CriteriaCondition.or(alternatives.toArray(CriteriaCondition[]::new)));
+    }
+
+    /**
+     * Describes the structure of the condition without its values. Two conditions with the same shape are
+     * converted to equal criteria queries, which differ only in the values of their parameters.
+     */
+    static String shapeOf(CriteriaCondition condition) {
+        final StringBuilder shape = new StringBuilder();
+        appendShape(condition, shape);
+        return shape.toString();
+    }
+
+    /**
+     * @return Values of the condition in the same order as the parameters created by {@link #toPredicate(CriteriaCondition)}
+     */
+    static List<Object> parameterValues(CriteriaCondition condition) {
+        final List<Object> values = new ArrayList<>();
+        collectValues(condition, values);
+        return values;
+    }
+
+    private static void appendShape(CriteriaCondition condition, StringBuilder shape) {
+        final Element element = condition.element();
+        switch (condition.condition()) {
+            case NOT -> {
+                shape.append("NOT(");
+                appendShape(element.get(CriteriaCondition.class), shape);
+                shape.append(')');
+            }
+            case AND, OR -> {
+                shape.append(condition.condition()).append('(');
+                for (CriteriaCondition child : children(element)) {
+                    appendShape(child, shape);
+                    shape.append(',');
+                }
+                shape.append(')');
+            }
+            case EQUALS -> shape.append(isNullValue(element) ? "IS_NULL" : "EQUALS")
+                    .append('(').append(element.name()).append(')');
+            case IN -> shape.append(isEmptyList(element) ? "IN_EMPTY" : "IN")
+                    .append('(').append(element.name()).append(')');
+            default -> shape.append(condition.condition()).append('(').append(element.name()).append(')');
+        }
+    }
+
+    private static void collectValues(CriteriaCondition condition, List<Object> values) {
+        final Element element = condition.element();
+        switch (condition.condition()) {
+            case NOT -> collectValues(element.get(CriteriaCondition.class), values);
+            case AND, OR -> children(element).forEach(child -> collectValues(child, values));
+            case EQUALS -> {
+                if (!isNullValue(element)) {
+                    values.add(ValueUtil.convert(element.value()));
+                }
+            }
+            case IN -> {
+                if (!isEmptyList(element)) {
+                    values.add(ValueUtil.convertToList(element.value()));
+                }
+            }
+            case BETWEEN -> {
+                final List<Object> range = ValueUtil.convertToList(element.value());
+                if (range.size() != 2) {
+                    throw new IllegalArgumentException("BETWEEN requires exactly 2 values, got: " + range);
+                }
+                values.addAll(range);
+            }
+            case LIKE -> values.add(element.value().get(String.class));
+            default -> values.add(ValueUtil.convert(element.value()));
+        }
+    }
+
+    private static List<CriteriaCondition> children(Element element) {
+        return element.get(new TypeReference<List<CriteriaCondition>>() {
+        });
+    }
+
+    private static boolean isNullValue(Element element) {
+        return element.value().isNull();
+    }
+
+    private static boolean isEmptyList(Element element) {
+        return ValueUtil.convertToList(element.value()).isEmpty();
+    }
+
+    private Order toOrder(Sort<?> sort) {
+        Expression<?> expression = expression(sort.property());
+        if (sort.ignoreCase()) {
+            expression = builder.lower(expression.as(String.class));
+        }
+        return sort.isAscending() ? builder.asc(expression) : builder.desc(expression);
+    }
+
+    private Predicate[] toPredicates(Element element) {
+        return children(element).stream()
+                .map(this::toPredicate)
+                .toArray(Predicate[]::new);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate compare(CriteriaCondition condition, Expression<?> compared) {
+        final Expression<Comparable> expression = (Expression<Comparable>) compared;
+        final Expression<Comparable> value = (Expression<Comparable>) parameter(compared);
+        return switch (condition.condition()) {
+            case GREATER_THAN -> builder.greaterThan(expression, value);
+            case GREATER_EQUALS_THAN -> builder.greaterThanOrEqualTo(expression, value);
+            case LESSER_THAN -> builder.lessThan(expression, value);
+            case LESSER_EQUALS_THAN -> builder.lessThanOrEqualTo(expression, value);
+            default -> throw new UnsupportedOperationException("Not a comparison: " + condition);
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate between(Expression<?> expression) {
+        final Expression<Comparable> from = (Expression<Comparable>) parameter(expression);
+        final Expression<Comparable> to = (Expression<Comparable>) parameter(expression);
+        return builder.between((Expression<Comparable>) expression, from, to);
+    }
+
+    private ParameterExpression<?> parameter(Expression<?> expression) {
+        final Class<?> type = wrap(expression.getJavaType());
+        final ParameterExpression<?> parameter = builder.parameter(type, nextParameterName());
+        parameters.add(new QueryParameter(parameter, type, false));
+        return parameter;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Expression<Collection<?>> collectionParameter(Expression<?> expression) {
+        final ParameterExpression<Collection> parameter = builder.parameter(Collection.class, nextParameterName());
+        parameters.add(new QueryParameter(parameter, wrap(expression.getJavaType()), true));
+        return (Expression<Collection<?>>) (Expression<?>) parameter;
+    }
+
+    private ParameterExpression<String> likeParameter() {
+        final ParameterExpression<String> parameter = builder.parameter(String.class, nextParameterName());
+        parameters.add(new QueryParameter(parameter, String.class, false));
+        return parameter;
+    }
+
+    /**
+     * Parameters are named by their position, so that queries prepared for the same shape have the same
+     * parameters, and values can be bound to any of them, e.g. to a named query registered by another cache.
+     */
+    private String nextParameterName() {
+        return parameterPrefix + parameters.size();
+    }
+
+    private boolean hasAttribute(String name) {
+        return root.getModel().getAttributes().stream()
+                .anyMatch(attribute -> attribute.getName().equals(name));
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    static Object convert(Object value, Class<?> type) {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        final Class<?> wrapperType = wrap(type);
+        if (wrapperType.isInstance(value)) {
+            return value;
+        }
+        if (wrapperType == Instant.class && value instanceof CharSequence text) {
+            // temporal values are written as text, but JNoSQL has no reader for Instant
+            return Instant.parse(text);
+        }
+        return Value.of(value).get(wrapperType);
+    }
+
+    /**
+     * A parameter of a criteria query created for a condition value.
+     *
+     * @param expression Parameter in the criteria query
+     * @param valueType Type to convert the value to, or type of the elements if the value is a collection
+     * @param collection Whether the value is a collection of values, e.g. for the IN condition
+     */
+    record QueryParameter(ParameterExpression<?> expression, Class<?> valueType, boolean collection) {
+
+        @SuppressWarnings("unchecked")
+        void bind(Query query, Object value) {
+            final Object converted = collection
+                    ? ((List<Object>) value).stream().map(item -> convert(item, valueType)).toList()
+                    : convert(value, valueType);
+            query.setParameter(expression.getName(), converted);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.metamodel.EntityType;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Persistence units used by a database manager. Writes go to the primary unit, reads to the read-only replica units
+ * of the primary unit, if there are any, chosen by the {@link Balancing balancing strategy}. Entities can also be
+ * routed by name to other units, which are then used for both reads and writes of those entities.
+ * <p>
+ * Replicas are expected to be copies of the primary unit, e.g. read replicas of the same database, which may lag
+ * behind the primary. Entities read from a replica right after they are written may not be visible yet.
+ */
+final class PersistenceUnits implements AutoCloseable {
+
+    /**
+     * Strategy of choosing a replica for a read.
+     */
+    enum Balancing {
+        /**
+         * Replicas are used in turns
+         */
+        ROUND_ROBIN("round-robin"),
+        /**
+         * The replica with the fewest reads in progress is used, replicas with the same number are used in turns
+         */
+        LEAST_OUTSTANDING("least-outstanding");
+
+        private final String configuration;
+
+        Balancing(String configuration) {
+            this.configuration = configuration;
+        }
+
+        /**
+         * @throws IllegalArgumentException If no strategy has the name
+         */
+        static Balancing of(String configuration) {
+            for (Balancing balancing : values()) {
+                if (balancing.configuration.equals(configuration)) {
+                    return balancing;
+                }
+            }
+            throw new IllegalArgumentException("The value of " + PersistenceConfigurations.REPLICA_BALANCING.get()
+                    + " must be one of round-robin, least-outstanding, but was " + configuration);
+        }
+    }
+
+    private final EntityManagerFactory primary;
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final Map<String, EntityManagerFactory> entityUnits;
+    private final List<EntityType<?>> entities;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param replicas Read-only replicas of the primary unit
+     * @param entityUnits Units of entities that are not stored in the primary unit, by JPA entity name
+     * @throws IllegalArgumentException If an entity isn't found in its unit
+     */
+    PersistenceUnits(EntityManagerFactory primary, List<EntityManagerFactory> replicas, Balancing balancing,
+            Map<String, EntityManagerFactory> entityUnits) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.balancing = balancing;
+        this.entityUnits = Map.copyOf(entityUnits);
+        final List<EntityType<?>> types = new ArrayList<>();
+        primary.getMetamodel().getEntities().stream()
+                .filter(type -> !entityUnits.containsKey(type.getName()))
+                .forEach(types::add);
+        entityUnits.forEach((entityName, unit) -> types.add(unit.getMetamodel().getEntities().stream()
+                .filter(type -> type.getName().equals(entityName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Entity with name " + entityName
+                        + " not found in the persistence unit " + unit.getName()))));
+        this.entities = List.copyOf(types);
+    }
+
+    /**
+     * @return Only the given unit, without replicas
+     */
+    static PersistenceUnits of(EntityManagerFactory emf) {
+        return new PersistenceUnits(emf, List.of(), Balancing.ROUND_ROBIN, Map.of());
+    }
+
+    /**
+     * @return The primary unit
+     */
+    EntityManagerFactory primary() {
+        return primary;
+    }
+
+    /**
+     * @return The unit that stores the entity
+     */
+    EntityManagerFactory primary(String entityName) {
+        return entityUnits.getOrDefault(entityName, primary);
+    }
+
+    /**
+     * Reads the entity in a replica of its unit, or in the unit itself if it has no replicas.
+     */
+    <T> T read(String entityName, Function<EntityManagerFactory, T> action) {
+        if (replicas.isEmpty() || entityUnits.containsKey(entityName)) {
+            return action.apply(primary(entityName));
+        }
+        final Replica replica = nextReplica();
+        replica.outstanding.incrementAndGet();
+        try {
+            return action.apply(replica.emf);
+        } finally {
+            replica.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return Entity types of all entities, each from the unit that stores it
+     */
+    List<EntityType<?>> entities() {
+        return entities;
+    }
+
+    /**
+     * Closes all units.
+     */
+    @Override
+    public void close() {
+        final Set<EntityManagerFactory> units = new LinkedHashSet<>();
+        units.add(primary);
+        replicas.forEach(replica -> units.add(replica.emf));
+        units.addAll(entityUnits.values());
+        units.forEach(EntityManagerFactory::close);
+    }
+
+    private Replica nextReplica() {
+        final int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        if (balancing == Balancing.ROUND_ROBIN) {
+            return replicas.get(start);
+        }
+        Replica leastOutstanding = replicas.get(start);
+        for (int i = 1; i < replicas.size(); i++) {
+            final Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.outstanding.get() < leastOutstanding.outstanding.get()) {
+                leastOutstanding = replica;
+            }
+        }
+        return leastOutstanding;
+    }
+
+    private record Replica(EntityManagerFactory emf, AtomicInteger outstanding) {
+
+        Replica(EntityManagerFactory emf) {
+            this(emf, new AtomicInteger());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import jakarta.data.Sort;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.SelectQuery;
+
+/**
+ * Reads results of a select query in windows of a limited size, so that only one window of entities is held
+ * in memory at a time.
+ * <p>
+ * If the query has no sorts, windows are read in the order of the id and each window continues after the last id
+ * of the previous window, so reading a window doesn't get slower with the number of rows already read. Otherwise
+ * windows are read by offset, ordered by the sorts of the query and the id.
+ */
+final class PersistenceWindowSpliterator extends Spliterators.AbstractSpliterator<Object> {
+
+    private final SelectQuery query;
+    private final int windowSize;
+    private final String idAttribute;
+    private final Function<Object, Object> idOf;
+    private final Function<SelectQuery, List<Object>> windowLoader;
+    private final boolean keyset;
+    private final Consumer<Throwable> completion;
+
+    private Iterator<Object> window = Collections.emptyIterator();
+    private long read;
+    private Object lastId;
+    private boolean exhausted;
+    private boolean closed;
+    private boolean completed;
+
+    /**
+     * @param query The select query
+     * @param windowSize Maximum number of entities in a window
+     * @param idAttribute Name of the id attribute, or null if the entity doesn't have a single id attribute
+     * @param idOf Returns the id of an entity
+     * @param windowLoader Executes a query for a window and returns its results, detached from any persistence context
+     * @param completion Called once when all results were read, reading a window failed, or the spliterator was
+     *                   closed, whichever comes first, with the exception if reading failed
+     */
+    PersistenceWindowSpliterator(SelectQuery query, int windowSize, String idAttribute, Function<Object, Object> idOf,
+            Function<SelectQuery, List<Object>> windowLoader, Consumer<Throwable> completion) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.query = query;
+        this.windowSize = windowSize;
+        this.idAttribute = idAttribute;
+        this.idOf = idOf;
+        this.windowLoader = windowLoader;
+        this.keyset = idAttribute != null && query.sorts().isEmpty();
+        this.completion = completion;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Object> action) {
+        if (!window.hasNext()) {
+            if (exhausted || closed) {
+                complete(null);
+                return false;
+            }
+            try {
+                readNextWindow();
+            } catch (RuntimeException | Error e) {
+                complete(e);
+                throw e;
+            }
+            if (!window.hasNext()) {
+                complete(null);
+                return false;
+            }
+        }
+        action.accept(window.next());
+        return true;
+    }
+
+    void close() {
+        closed = true;
+        window = Collections.emptyIterator();
+        complete(null);
+    }
+
+    private void complete(Throwable failure) {
+        if (!completed) {
+            completed = true;
+            completion.accept(failure);
+        }
+    }
+
+    private void readNextWindow() {
+        final long remaining = query.limit() > 0 ? query.limit() - read : Long.MAX_VALUE;
+        if (remaining <= 0) {
+            exhausted = true;
+            return;
+        }
+        final int size = (int) Math.min(windowSize, remaining);
+        final List<Object> results = windowLoader.apply(windowQuery(size));
+        read += results.size();
+        exhausted = results.size() < size;
+        if (keyset && !results.isEmpty()) {
+            lastId = idOf.apply(results.get(results.size() - 1));
+        }
+        window = results.iterator();
+    }
+
+    private SelectQuery windowQuery(int size) {
+        final SelectQuery.QueryBuilder builder = SelectQuery.builder().from(query.name()).limit(size);
+        if (keyset) {
+            final CriteriaCondition afterLastId = lastId == null ? null : CriteriaCondition.gt(idAttribute, lastId);
+            query.condition()
+                    .map(condition -> afterLastId == null ? condition : CriteriaCondition.and(condition, afterLastId))
+                    .or(() -> Optional.ofNullable(afterLastId))
+                    .ifPresent(builder::where);
+            builder.sort(Sort.asc(idAttribute));
+            if (lastId == null) {
+                builder.skip(query.skip());
+            }
+        } else {
+            query.condition().ifPresent(builder::where);
+            final List<Sort<?>> sorts = new ArrayList<>(query.sorts());
+            if (idAttribute != null && sorts.stream().noneMatch(sort -> sort.property().equals(idAttribute))) {
+                sorts.add(Sort.asc(idAttribute));
+            }
+            builder.sort(sorts.toArray(Sort<?>[]::new));
+            builder.skip(query.skip() + read);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+
+/**
+ * Collects single entity writes from many threads and commits them in groups, so that a group of writes needs
+ * only one transaction commit. A group is committed with the executor as soon as a write fills it up to the maximum
+ * size, or by a background thread when the oldest write in the group has waited for the maximum delay. Threads that
+ * submit writes never execute the commit themselves.
+ * <p>
+ * The completion stage of a write completes when its group is committed. If the commit fails, the whole group is
+ * rolled back and each write of the group is committed again in its own transaction, so that only the writes
+ * that fail on their own complete exceptionally.
+ */
+final class PersistenceWriteBehind implements AutoCloseable {
+
+    private final int maxSize;
+    private final long maxDelayNanos;
+    private final Executor executor;
+    private final Function<List<PendingWrite>, List<CommunicationEntity>> committer;
+    private final ScheduledExecutorService scheduler;
+
+    private List<PendingWrite> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    /**
+     * @param maxSize Maximum number of writes in a group
+     * @param maxDelay Maximum time a write waits for other writes
+     * @param executor Commits groups that are full
+     * @param committer Writes a group in a single transaction and returns the written entities in the same order
+     */
+    PersistenceWriteBehind(int maxSize, Duration maxDelay, Executor executor,
+            Function<List<PendingWrite>, List<CommunicationEntity>> committer) {
+        this.maxSize = maxSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.executor = executor;
+        this.committer = committer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "jnosql-jakarta-persistence-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param update Whether the entity is merged instead of persisted
+     * @return Completion stage of the written entity, completed when the group of the write is committed,
+     *         or completed exceptionally with {@link IllegalStateException} if this write-behind is closed
+     */
+    CompletableFuture<CommunicationEntity> submit(CommunicationEntity entity, boolean update) {
+        final PendingWrite write = new PendingWrite(entity, update, new CompletableFuture<>());
+        final List<PendingWrite> group;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("The write-behind is closed"));
+            }
+            pending.add(write);
+            if (pending.size() >= maxSize) {
+                group = takePending();
+            } else {
+                group = List.of();
+                if (scheduledFlush == null) {
+                    scheduledFlush = scheduler.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        if (!group.isEmpty()) {
+            try {
+                executor.execute(() -> commit(group));
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down, the writes are still committed
+                commit(group);
+            }
+        }
+        return write.result();
+    }
+
+    /**
+     * Commits the collected writes now.
+     */
+    void flush() {
+        final List<PendingWrite> group;
+        synchronized (this) {
+            group = takePending();
+        }
+        commit(group);
+    }
+
+    /**
+     * Commits the collected writes and stops the background thread. Writes submitted after closing are rejected.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdown();
+    }
+
+    private List<PendingWrite> takePending() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        final List<PendingWrite> group = pending;
+        pending = new ArrayList<>();
+        return group;
+    }
+
+    private void commit(List<PendingWrite> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        final List<CommunicationEntity> written;
+        try {
+            written = committer.apply(group);
+        } catch (RuntimeException | Error e) {
+            if (group.size() == 1) {
+                group.get(0).result().completeExceptionally(e);
+            } else {
+                group.forEach(write -> commit(List.of(write)));
+            }
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).result().complete(written.get(i));
+        }
+    }
+
+    /**
+     * A write waiting for the commit of its group.
+     *
+     * @param entity Entity to write
+     * @param update Whether the entity is merged instead of persisted
+     * @param result Completed with the written entity when the group is committed
+     */
+    record PendingWrite(CommunicationEntity entity, boolean update, CompletableFuture<CommunicationEntity> result) {
+    }
+}
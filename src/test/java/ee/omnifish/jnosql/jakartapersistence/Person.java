@@ -15,21 +15,65 @@
  */
 package ee.omnifish.jnosql.jakartapersistence;
 
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceFetchPlan;
 import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.Id;
+import java.time.Instant;
 import java.util.List;
 
 @Entity(name = "Person")
+@EntityListeners(PersonLoadCounter.class)
+@PersistenceFetchPlan("phones")
 public class Person {
 
   @Id
+  @jakarta.nosql.Id
   private long id;
 
   @Column
+  @jakarta.nosql.Column
   private String name;
 
-  @Column
+  @ElementCollection
   private List<String> phones;
+
+  @Column
+  private Instant expiresAt;
+
+  public Person() {
+  }
+
+  public Person(long id, String name) {
+    this.id = id;
+    this.name = name;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public List<String> getPhones() {
+    return phones;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+
+  @Override
+  public String toString() {
+    return "Person{" + "id=" + id + ", name=" + name + '}';
+  }
 }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence;
+
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PrePersist;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts {@link Person} entities loaded from the database, to verify which operations materialize entities, and
+ * entities inserted into the database, to verify when the persistence context is flushed.
+ */
+public class PersonLoadCounter {
+
+    private static final AtomicLong LOADED = new AtomicLong();
+    private static final AtomicLong INSERTED = new AtomicLong();
+    private static final AtomicLong INSERTED_BEFORE_LAST_PERSIST = new AtomicLong();
+
+    @PostLoad
+    void loaded(Person person) {
+        LOADED.incrementAndGet();
+    }
+
+    @PrePersist
+    void persisting(Person person) {
+        INSERTED_BEFORE_LAST_PERSIST.set(INSERTED.get());
+    }
+
+    @PostPersist
+    void inserted(Person person) {
+        INSERTED.incrementAndGet();
+    }
+
+    public static long loaded() {
+        return LOADED.get();
+    }
+
+    /**
+     * @return Number of entities inserted into the database, which happens when the persistence context is flushed
+     */
+    public static long inserted() {
+        return INSERTED.get();
+    }
+
+    /**
+     * @return Number of entities that were {@link #inserted() inserted} when the last entity was persisted
+     */
+    public static long insertedBeforeLastPersist() {
+        return INSERTED_BEFORE_LAST_PERSIST.get();
+    }
+}
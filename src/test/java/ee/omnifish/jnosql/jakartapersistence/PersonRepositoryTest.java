@@ -17,11 +17,17 @@ package ee.omnifish.jnosql.jakartapersistence;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceMappingConverter;
 import jakarta.enterprise.inject.se.SeContainer;
 import jakarta.enterprise.inject.se.SeContainerInitializer;
 import java.util.List;
+import org.eclipse.jnosql.mapping.semistructured.EntityConverter;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -53,10 +59,34 @@ public class PersonRepositoryTest {
         System.out.println("All persons: " + persons);
     }
 
+    @Test
+    public void savedEntitiesAreReadThroughPersistenceConverter() {
+        assertThat("converter of the driver selected", cdiContainer.select(EntityConverter.class).get(),
+                is(instanceOf(PersistenceMappingConverter.class)));
+        final PersonRepository personRepo = cdiContainer.select(PersonRepository.class).get();
+        try {
+            personRepo.save(new Person(1, "Alice"));
+            personRepo.save(new Person(2, "Bob"));
+            assertThat(personRepo.findAll().map(Person::getName).sorted().toList(), contains("Alice", "Bob"));
+
+            final Person found = personRepo.findById(1L).orElseThrow();
+            found.setName("Modified");
+            final long loaded = PersonLoadCounter.loaded();
+            final Person cached = personRepo.findById(1L).orElseThrow();
+            assertThat("found in the entity cache", PersonLoadCounter.loaded(), is(loaded));
+            assertThat("not shared with the entity cache", cached, is(not(sameInstance(found))));
+            assertThat(cached.getName(), is("Alice"));
+            cached.setName("Modified");
+            assertThat(personRepo.findById(1L).orElseThrow().getName(), is("Alice"));
+        } finally {
+            personRepo.deleteAll(personRepo.findAll().toList());
+        }
+    }
+
     @Test
     public void count() {
         final PersonRepository personRepo = cdiContainer.select(PersonRepository.class).get();
         final long count = personRepo.countAll();
-        System.out.println("Number of all persons: " + count);
+        assertThat("count", count, is(0L));
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+import ee.omnifish.jnosql.jakartapersistence.PersonRepository;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceClassIndex.Kind;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the index written by {@link PersistenceIndexProcessor} when the test classes are compiled.
+ */
+public class PersistenceClassIndexTest {
+
+    @Test
+    public void indexContainsRepositoriesOfTestClasses() {
+        final Optional<PersistenceClassIndex> index = PersistenceClassIndex.load(getClass().getClassLoader());
+        assertThat(index.isPresent(), is(true));
+        assertThat(index.get().classes(Kind.REPOSITORY), contains(PersonRepository.class));
+        assertThat(index.get().classes(Kind.EMBEDDABLE), is(empty()));
+    }
+
+    @Test
+    public void processorMergesIndexOfPreviousCompilation(@TempDir Path directory) throws IOException {
+        final Path output = Files.createDirectories(directory.resolve("classes"));
+        final Path index = output.resolve(PersistenceClassIndex.RESOURCE);
+        Files.createDirectories(index.getParent());
+        Files.writeString(index, "entity:com.example.Removed\nrepository:" + PersonRepository.class.getName() + "\n");
+        final Path source = Files.writeString(directory.resolve("Book.java"), "@jakarta.nosql.Entity public class Book {}");
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final int result = compiler.run(null, null, null, "-d", output.toString(),
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", PersistenceIndexProcessor.class.getName(), source.toString());
+        assertThat(result, is(0));
+        assertThat(Files.readAllLines(index), contains("entity:Book", "repository:" + PersonRepository.class.getName()));
+    }
+}
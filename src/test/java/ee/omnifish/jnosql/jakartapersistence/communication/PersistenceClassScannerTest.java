@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import ee.omnifish.jnosql.jakartapersistence.PersonRepository;
+import ee.omnifish.jnosql.jakartapersistence.communication.PersistenceClassIndex.Kind;
+import jakarta.data.repository.BasicRepository;
+import jakarta.data.repository.CrudRepository;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link PersistenceClassScanner} with the index of test classes and of the classpath scan.
+ */
+public class PersistenceClassScannerTest {
+
+    @Test
+    public void scannerReadsRepositoriesFromIndex() {
+        assertThat(new PersistenceClassScanner().repositories(), contains(PersonRepository.class));
+    }
+
+    @Test
+    public void repositoriesAreClassifiedOnce() {
+        final PersistenceClassScanner scanner = new PersistenceClassScanner();
+        assertThat(scanner.repositories(CrudRepository.class), contains(PersonRepository.class));
+        assertThat(scanner.repositories(CrudRepository.class), is(sameInstance(scanner.repositories(CrudRepository.class))));
+        assertThat(scanner.repositories(BasicRepository.class), is(empty()));
+        assertThat(scanner.repositoriesStandard(), contains(PersonRepository.class));
+        assertThat(scanner.customRepositories(), is(empty()));
+    }
+
+    @Test
+    public void scanFindsRepositoriesInPersistenceUnitArchives() {
+        final Map<Kind, List<Class<?>>> classes = PersistenceClassScannerSingleton.scan(getClass().getClassLoader(),
+                classpathElement -> false, true);
+        assertThat(classes.get(Kind.REPOSITORY), contains(PersonRepository.class));
+        assertThat(classes.get(Kind.EMBEDDABLE), is(empty()));
+    }
+
+    @Test
+    public void scanFindsRepositoriesInAllArchives() {
+        final Map<Kind, List<Class<?>>> classes = PersistenceClassScannerSingleton.scan(getClass().getClassLoader(),
+                classpathElement -> false, false);
+        assertThat(classes.get(Kind.REPOSITORY), contains(PersonRepository.class));
+    }
+
+    @Test
+    public void scanSkipsIndexedArchives() {
+        final PersistenceClassIndex index = PersistenceClassIndex.load(getClass().getClassLoader()).orElseThrow();
+        final Map<Kind, List<Class<?>>> classes = PersistenceClassScannerSingleton.scan(getClass().getClassLoader(),
+                index::indexes, false);
+        assertThat("test classes are indexed", classes.get(Kind.REPOSITORY), is(empty()));
+    }
+}
@@ -0,0 +1,827 @@
+/*
+ * Copyright (c) 2024 OmniFish. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v. 2.0, which is available at
+ * http://www.eclipse.org/legal/epl-2.0.
+ *
+ * This Source Code may also be made available under the following Secondary
+ * Licenses when the conditions for such availability set forth in the
+ * Eclipse Public License v. 2.0 are satisfied: GNU General Public License,
+ * version 2 with the GNU Classpath Exception, which is available at
+ * https://www.gnu.org/software/classpath/license.html.
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-2.0 WITH Classpath-exception-2.0
+ */
+package ee.omnifish.jnosql.jakartapersistence.communication;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+
+import ee.omnifish.jnosql.jakartapersistence.Person;
+import ee.omnifish.jnosql.jakartapersistence.PersonLoadCounter;
+import jakarta.data.Sort;
+import jakarta.data.page.CursoredPage;
+import jakarta.data.page.PageRequest;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.eclipse.jnosql.communication.Settings;
+import org.eclipse.jnosql.communication.semistructured.CommunicationEntity;
+import org.eclipse.jnosql.communication.semistructured.CriteriaCondition;
+import org.eclipse.jnosql.communication.semistructured.DatabaseManager;
+import org.eclipse.jnosql.communication.semistructured.DeleteQuery;
+import org.eclipse.jnosql.communication.semistructured.Element;
+import org.eclipse.jnosql.communication.semistructured.SelectQuery;
+import org.eclipse.persistence.jpa.JpaEntityManagerFactory;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link PersistenceDatabaseManager} against the test persistence unit, without the CDI container.
+ */
+public class PersistenceDatabaseManagerTest {
+
+    private EntityManagerFactory emf;
+    private PersistenceDatabaseManager manager;
+
+    @BeforeEach
+    public void init() {
+        emf = Persistence.createEntityManagerFactory("testPersistenceUnit");
+        final EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.persist(new Person(1, "Alice"));
+        em.persist(new Person(2, "Bob"));
+        em.persist(new Person(3, "Carol"));
+        em.persist(new Person(4, "Dave"));
+        em.getTransaction().commit();
+        em.close();
+        manager = new PersistenceDatabaseManager(emf);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        manager.close();
+        final EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        em.createQuery("DELETE FROM Person").executeUpdate();
+        em.getTransaction().commit();
+        em.close();
+        emf.close();
+    }
+
+    @Test
+    public void selectWithCondition() {
+        final SelectQuery query = SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.gt("id", 1L).and(CriteriaCondition.like("name", "%o%")))
+                .sort(Sort.asc("name"))
+                .build();
+        assertThat(names(query), contains("Bob", "Carol"));
+    }
+
+    @Test
+    public void selectWithOrNotAndIn() {
+        final SelectQuery query = SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.or(
+                        CriteriaCondition.eq("name", "Alice"),
+                        CriteriaCondition.in("id", List.of(3L, 4L)).negate()))
+                .sort(Sort.desc("id"))
+                .build();
+        assertThat(names(query), contains("Bob", "Alice"));
+    }
+
+    @Test
+    public void selectWithBetweenSkipAndLimit() {
+        final SelectQuery query = SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.between("id", List.of(1L, 4L)))
+                .sort(Sort.asc("id"))
+                .skip(1)
+                .limit(2)
+                .build();
+        assertThat(names(query), contains("Bob", "Carol"));
+    }
+
+    @Test
+    public void queriesWithSameShapeAreCached() {
+        final PersistenceQueryCache cache = manager.queryCache();
+        final long misses = cache.misses();
+        final long hits = cache.hits();
+        assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("name", "Alice")).build()),
+                contains("Alice"));
+        assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("name", "Dave")).build()),
+                contains("Dave"));
+        assertThat(cache.misses() - misses, is(1L));
+        assertThat(cache.hits() - hits, is(1L));
+        assertThat("executed as a named query", emf.getNamedQueries(Object.class).keySet(),
+                hasItem(startsWith("jnosql:")));
+    }
+
+    @Test
+    public void countDoesNotLoadEntities() {
+        final long loaded = PersonLoadCounter.loaded();
+        assertThat(manager.count("Person"), is(4L));
+        assertThat(manager.count(SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.gte("id", 2L)).build()), is(3L));
+        assertThat("entities loaded by count", PersonLoadCounter.loaded(), is(loaded));
+
+        names(SelectQuery.builder().from("Person").build());
+        assertThat("entities loaded by select", PersonLoadCounter.loaded(), is(loaded + 4));
+    }
+
+    @Test
+    public void insertAndUpdateInBatches() {
+        final Settings settings = Settings.of(Map.of(PersistenceConfigurations.BATCH_SIZE.get(), 100));
+        try (PersistenceDatabaseManager batchManager = new PersistenceDatabaseManager(emf,
+                new PersistenceQueryCache(), new PersistenceOptions(settings))) {
+            final List<Person> persons = LongStream.rangeClosed(100, 349)
+                    .mapToObj(id -> new Person(id, "Person " + id))
+                    .toList();
+            final long inserted = PersonLoadCounter.inserted();
+            batchManager.insert(persons.stream()
+                    .map(person -> PersistenceEntityConverter.toCommunicationEntity("Person", person))
+                    .toList());
+            assertThat(batchManager.count("Person"), is(254L));
+            assertThat("inserted by a flush after each batch before the last entity was persisted",
+                    PersonLoadCounter.insertedBeforeLastPersist() - inserted, is(200L));
+
+            final Iterable<CommunicationEntity> updated = batchManager.update(List.of(
+                    CommunicationEntity.of("Person", List.of(Element.of("_id", 1L), Element.of("name", "Alicia")))));
+            assertThat(updated.iterator().next().find("name", String.class).orElseThrow(), is("Alicia"));
+        }
+        assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("id", 1L)).build()),
+                contains("Alicia"));
+    }
+
+    @Test
+    public void deleteWithBulkStatement() {
+        final long loaded = PersonLoadCounter.loaded();
+        manager.delete(DeleteQuery.builder().from("Person").where(CriteriaCondition.lte("id", 2L)).build());
+        assertThat("entities loaded by delete", PersonLoadCounter.loaded(), is(loaded));
+        assertThat(names(SelectQuery.builder().from("Person").sort(Sort.asc("id")).build()),
+                contains("Carol", "Dave"));
+    }
+
+    @Test
+    public void selectColumnsAsTuples() {
+        final long loaded = PersonLoadCounter.loaded();
+        final List<CommunicationEntity> entities = manager.select(SelectQuery.select("_id", "name").from("Person")
+                .where("id").gt(2L).orderBy("id").asc().build()).toList();
+        assertThat("entities loaded by projection", PersonLoadCounter.loaded(), is(loaded));
+        assertThat(entities.stream().map(CommunicationEntity::toMap).toList(), contains(
+                Map.of("_id", 3L, "name", "Carol"),
+                Map.of("_id", 4L, "name", "Dave")));
+    }
+
+    @Test
+    public void selectInWindows() {
+        manager.insert(LongStream.rangeClosed(5, 25)
+                .mapToObj(id -> PersistenceEntityConverter.toCommunicationEntity("Person", new Person(id, "P" + id)))
+                .toList());
+        final SelectQuery byId = SelectQuery.builder().from("Person").skip(2).limit(20).build();
+        try (Stream<CommunicationEntity> stream = manager.select(byId, 3)) {
+            assertThat(stream.map(PersistenceDatabaseManagerTest::toPerson).map(Person::getId).toList(),
+                    is(LongStream.rangeClosed(3, 22).boxed().toList()));
+        }
+        final SelectQuery byName = SelectQuery.builder().from("Person").where(CriteriaCondition.lte("id", 4L))
+                .sort(Sort.desc("name")).build();
+        try (Stream<CommunicationEntity> stream = manager.select(byName, 3)) {
+            assertThat(stream.map(PersistenceDatabaseManagerTest::toPerson).map(Person::getName).toList(),
+                    contains("Dave", "Carol", "Bob", "Alice"));
+        }
+    }
+
+    @Test
+    public void managersWithSeparateCachesShareNamedQueries() {
+        final SelectQuery byName = SelectQuery.builder().from("Person").where(CriteriaCondition.eq("name", "Bob")).build();
+        final PersistenceQueryCache evictingCache = new PersistenceQueryCache(1);
+        try (PersistenceDatabaseManager other = new PersistenceDatabaseManager(emf);
+                PersistenceDatabaseManager evicting = new PersistenceDatabaseManager(emf, evictingCache,
+                        PersistenceOptions.defaults())) {
+            assertThat(names(byName), contains("Bob"));
+            assertThat(other.select(byName).count(), is(1L));
+            assertThat("after the other cache registered the shape", names(byName), contains("Bob"));
+            assertThat(manager.count(byName), is(1L));
+
+            assertThat(evicting.select(byName).count(), is(1L));
+            assertThat(evicting.count("Person"), is(4L));
+            assertThat("prepared again after eviction", evicting.select(byName).count(), is(1L));
+            assertThat(evictingCache.misses(), is(3L));
+            assertThat(other.select(byName).count(), is(1L));
+        }
+    }
+
+    @Test
+    public void concurrentOperationsShareOneManager() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final long id = 1000 + i;
+                results.add(executor.submit(() -> {
+                    manager.insert(List.of(
+                            PersistenceEntityConverter.toCommunicationEntity("Person", new Person(id, "T" + id))));
+                    assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("id", id)).build()),
+                            contains("T" + id));
+                    return manager.count(SelectQuery.builder().from("Person")
+                            .where(CriteriaCondition.lte("id", 4L)).build());
+                }));
+            }
+            for (Future<Long> result : results) {
+                assertThat(result.get(), is(4L));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(manager.count("Person"), is(4L + threads));
+    }
+
+    @Test
+    public void asyncOperationsRunOnConfiguredExecutor() {
+        final AtomicInteger tasks = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Executor countingExecutor = task -> {
+            tasks.incrementAndGet();
+            executor.execute(task);
+        };
+        final Settings settings = Settings.of(Map.of(PersistenceConfigurations.ASYNC_EXECUTOR.get(), countingExecutor));
+        try (PersistenceDatabaseManager asyncManager = new PersistenceDatabaseManager(emf,
+                new PersistenceQueryCache(), new PersistenceOptions(settings))) {
+            final CompletableFuture<Iterable<CommunicationEntity>> inserted = asyncManager.insertAsync(List.of(
+                    PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Eve"))))
+                    .toCompletableFuture();
+            inserted.join();
+            final CompletableFuture<List<CommunicationEntity>> first = asyncManager.selectAsync(SelectQuery.builder()
+                    .from("Person").where(CriteriaCondition.lte("id", 2L)).sort(Sort.asc("id")).build())
+                    .toCompletableFuture();
+            final CompletableFuture<List<CommunicationEntity>> second = asyncManager.selectAsync(SelectQuery.builder()
+                    .from("Person").where(CriteriaCondition.gt("id", 2L)).sort(Sort.asc("id")).build())
+                    .toCompletableFuture();
+            final CompletableFuture<Long> count = asyncManager.countAsync("Person").toCompletableFuture();
+            CompletableFuture.allOf(first, second, count).join();
+
+            assertThat(first.join().stream().map(PersistenceDatabaseManagerTest::toPerson).map(Person::getName).toList(),
+                    contains("Alice", "Bob"));
+            assertThat(second.join().stream().map(PersistenceDatabaseManagerTest::toPerson).map(Person::getName).toList(),
+                    contains("Carol", "Dave", "Eve"));
+            assertThat(count.join(), is(5L));
+            assertThat(tasks.get(), is(4));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void selectByIdUsesFindAndEntityCache() {
+        final long criteriaQueries = manager.queryCache().hits() + manager.queryCache().misses();
+        assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("_id", 2L)).build()),
+                contains("Bob"));
+        assertThat(names(SelectQuery.builder().from("Person").where(CriteriaCondition.eq("id", 99L)).build()),
+                is(empty()));
+        assertThat("criteria queries used", manager.queryCache().hits() + manager.queryCache().misses(),
+                is(criteriaQueries));
+
+        final AtomicLong nanos = new AtomicLong();
+        final PersistenceEntityCache entityCache = new PersistenceEntityCache(Set.of("Person"), 10,
+                Duration.ofSeconds(60), nanos::get);
+        try (PersistenceDatabaseManager cachingManager = new PersistenceDatabaseManager(emf,
+                new PersistenceQueryCache(), entityCache, PersistenceOptions.defaults(), null,
+                new PersistenceMetrics(new PersistenceQueryCache(), Duration.ZERO))) {
+            final SelectQuery byId = SelectQuery.builder().from("Person").where(CriteriaCondition.eq("id", 1L)).build();
+            final Person first = toPerson(cachingManager.select(byId).findFirst().orElseThrow());
+            first.setName("Modified");
+            final Person cached = toPerson(cachingManager.select(byId).findFirst().orElseThrow());
+            assertThat(entityCache.hits(), is(1L));
+            assertThat("a copy of the cached entity", cached, is(not(sameInstance(first))));
+            assertThat("not affected by modified copies", cached.getName(), is("Alice"));
+
+            cachingManager.update(List.of(
+                    CommunicationEntity.of("Person", List.of(Element.of("_id", 1L), Element.of("name", "Alicia")))));
+            final Person updated = toPerson(cachingManager.select(byId).findFirst().orElseThrow());
+            assertThat("invalidated by update", updated.getName(), is("Alicia"));
+
+            final long misses = entityCache.misses();
+            nanos.addAndGet(Duration.ofSeconds(61).toNanos());
+            assertThat(toPerson(cachingManager.select(byId).findFirst().orElseThrow()).getName(), is("Alicia"));
+            assertThat("expired", entityCache.misses(), is(misses + 1));
+        }
+
+        final Person person = new Person(2, "Bob");
+        final long version = entityCache.version("Person", 2L);
+        entityCache.invalidate("Person", 2L);
+        entityCache.put("Person", 2L, person, emf.getMetamodel().entity(Person.class), version);
+        assertThat("read before an invalidation", entityCache.get("Person", 2L).isPresent(), is(false));
+        entityCache.put("Person", 2L, person, emf.getMetamodel().entity(Person.class), entityCache.version("Person", 2L));
+        assertThat(entityCache.get("Person", 2L).isPresent(), is(true));
+    }
+
+    @Test
+    public void selectPagesWithCursors() {
+        manager.insert(List.of(
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Bob")),
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(6, "Eve"))));
+        final SelectQuery query = SelectQuery.builder().from("Person").where(CriteriaCondition.gt("id", 1L))
+                .sort(Sort.asc("name"), Sort.asc("id")).build();
+
+        final CursoredPage<CommunicationEntity> first = manager.selectCursor(query, PageRequest.ofSize(2).withTotal());
+        assertThat(pageIds(first), contains(2L, 5L));
+        assertThat(first.totalElements(), is(5L));
+        assertThat(first.hasPrevious(), is(false));
+        assertThat(first.cursor(1).elements(), contains("Bob", 5L));
+
+        final CursoredPage<CommunicationEntity> second = manager.selectCursor(query, first.nextPageRequest());
+        assertThat(pageIds(second), contains(3L, 4L));
+        final CursoredPage<CommunicationEntity> third = manager.selectCursor(query, second.nextPageRequest());
+        assertThat(pageIds(third), contains(6L));
+        assertThat(third.hasNext(), is(false));
+
+        final CursoredPage<CommunicationEntity> back = manager.selectCursor(query, third.previousPageRequest());
+        assertThat(pageIds(back), contains(3L, 4L));
+        assertThat(back.hasPrevious(), is(true));
+        assertThat(pageIds(manager.selectCursor(query, back.previousPageRequest())), contains(2L, 5L));
+
+        final SelectQuery descending = SelectQuery.builder().from("Person").sort(Sort.desc("id")).build();
+        assertThat(pageIds(manager.selectCursor(descending, PageRequest.ofSize(3).afterCursor(PageRequest.Cursor.forKey(4L)))),
+                contains(3L, 2L, 1L));
+    }
+
+    @Test
+    public void selectLoadsFetchPlan() {
+        final AtomicInteger statements = new AtomicInteger();
+        emf.unwrap(JpaEntityManagerFactory.class).getDatabaseSession().getEventManager()
+                .addListener(new SessionEventAdapter() {
+                    @Override
+                    public void postExecuteCall(SessionEvent event) {
+                        statements.incrementAndGet();
+                    }
+                });
+
+        emf.getCache().evictAll();
+        final EntityManager em = emf.createEntityManager();
+        final List<Person> lazy = em.createQuery("SELECT p FROM Person p", Person.class).getResultList();
+        lazy.forEach(person -> assertThat(emf.getPersistenceUnitUtil().isLoaded(person, "phones"), is(false)));
+        statements.set(0);
+        lazy.forEach(person -> assertThat(person.getPhones(), is(empty())));
+        assertThat("a statement per entity without the fetch plan", statements.get(), is(4));
+        em.close();
+
+        emf.getCache().evictAll();
+        statements.set(0);
+        final List<Person> persons = manager.select(SelectQuery.builder().from("Person").build())
+                .map(PersistenceDatabaseManagerTest::toPerson)
+                .toList();
+        assertThat(persons.size(), is(4));
+        final int loadStatements = statements.get();
+        persons.forEach(person -> assertThat(emf.getPersistenceUnitUtil().isLoaded(person, "phones"), is(true)));
+        persons.forEach(person -> assertThat(person.getPhones(), is(empty())));
+        assertThat("no statements after loading with the fetch plan", statements.get(), is(loadStatements));
+
+        emf.getCache().evictAll();
+        final Person found = toPerson(manager.select(SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.eq("id", 1L)).build()).findFirst().orElseThrow());
+        assertThat(emf.getPersistenceUnitUtil().isLoaded(found, "phones"), is(true));
+    }
+
+    @Test
+    public void operationsAreRecordedInMetrics() {
+        final PersistenceQueryCache queryCache = new PersistenceQueryCache();
+        final PersistenceMetrics metrics = new PersistenceMetrics(queryCache, Duration.ZERO);
+        try (PersistenceDatabaseManager observedManager = new PersistenceDatabaseManager(emf, queryCache,
+                PersistenceOptions.defaults().newEntityCache(), PersistenceOptions.defaults(), null, metrics)) {
+            observedManager.insert(List.of(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Eve"))));
+            final SelectQuery query = SelectQuery.builder().from("Person").where(CriteriaCondition.gt("id", 2L)).build();
+            assertThat(observedManager.select(query).count(), is(3L));
+            assertThat(observedManager.select(query).count(), is(3L));
+            assertThat(observedManager.count(query), is(3L));
+            observedManager.delete(DeleteQuery.builder().from("Person").where(CriteriaCondition.eq("id", 5L)).build());
+        }
+
+        assertThat(metrics.entityNames(), contains("Person"));
+        assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.INSERT).rows(), is(1L));
+        final PersistenceMetrics.Snapshot selects = metrics.snapshot("Person", PersistenceOperationListener.Operation.SELECT);
+        assertThat(selects.count(), is(2L));
+        assertThat(selects.rows(), is(6L));
+        assertThat(selects.failures(), is(0L));
+        assertThat(LongStream.of(selects.histogram()).sum(), is(2L));
+        assertThat(selects.percentileNanos(100) >= selects.maxNanos(), is(true));
+        assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.COUNT).count(), is(1L));
+        assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.COUNT).rows(), is(3L));
+        assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.DELETE).rows(), is(1L));
+        assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.UPDATE).count(), is(0L));
+        assertThat(metrics.queryCacheHitRate(), is(0.25));
+    }
+
+    @Test
+    public void windowedSelectsAreRecordedWhenExhausted() {
+        final PersistenceMetrics metrics = new PersistenceMetrics(new PersistenceQueryCache(), Duration.ZERO);
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.STREAM_WINDOW_SIZE.get(), 3)));
+        try (PersistenceDatabaseManager observedManager = new PersistenceDatabaseManager(emf, new PersistenceQueryCache(),
+                options.newEntityCache(), options, null, metrics)) {
+            assertThat(observedManager.select(SelectQuery.builder().from("Person").build()).count(), is(4L));
+            final PersistenceMetrics.Snapshot selects = metrics.snapshot("Person", PersistenceOperationListener.Operation.SELECT);
+            assertThat("recorded without closing the stream", selects.count(), is(1L));
+            assertThat(selects.rows(), is(4L));
+
+            final Stream<CommunicationEntity> failing = observedManager.select(SelectQuery.builder().from("Person")
+                    .where(CriteriaCondition.eq("unknown", 1L)).build());
+            Assertions.assertThrows(RuntimeException.class, () -> failing.findFirst());
+            failing.close();
+            assertThat(metrics.snapshot("Person", PersistenceOperationListener.Operation.SELECT).failures(), is(1L));
+            assertThat("recorded once", metrics.snapshot("Person", PersistenceOperationListener.Operation.SELECT).count(),
+                    is(2L));
+        }
+    }
+
+    @Test
+    public void entityTypesResolveEntityAndClassNames() {
+        final PersistenceEntityTypes entityTypes = PersistenceEntityTypes.of(emf.getMetamodel());
+        assertThat(entityTypes.get("Person").getJavaType(), is((Object) Person.class));
+        assertThat(entityTypes.get(Person.class.getName()).getJavaType(), is((Object) Person.class));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> entityTypes.get("Unknown"));
+        assertThat(names(SelectQuery.builder().from(Person.class.getName()).where(CriteriaCondition.eq("id", 2L)).build()),
+                contains("Bob"));
+    }
+
+    @Test
+    public void selectEntitiesWithoutWrapping() {
+        final List<Person> persons = manager.selectEntities(Person.class, SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.gt("id", 1L)).sort(Sort.asc("id")).build()).toList();
+        assertThat(persons.stream().map(Person::getName).toList(), contains("Bob", "Carol", "Dave"));
+
+        final CommunicationEntity wrapped = manager.select(SelectQuery.builder().from("Person")
+                .where(CriteriaCondition.eq("id", 1L)).build()).findFirst().orElseThrow();
+        final PersistenceMappingConverter converter = new PersistenceMappingConverter();
+        assertThat(converter.toEntity(Person.class, wrapped), is(sameInstance(toPerson(wrapped))));
+        assertThat(converter.<Person>toEntity(wrapped), is(sameInstance(toPerson(wrapped))));
+    }
+
+    @Test
+    public void aggregateInDatabase() {
+        manager.insert(List.of(
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Bob")),
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(6, "Carol")),
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(7, "Bob"))));
+        final PersistenceAggregateQuery byName = PersistenceAggregateQuery.builder("Person")
+                .groupBy("name")
+                .count("persons")
+                .sum("id", "idSum")
+                .min("id", "minId")
+                .max("id", "maxId")
+                .where(CriteriaCondition.gt("id", 1L))
+                .having(CriteriaCondition.gt("persons", 1L))
+                .sort(Sort.desc("persons"))
+                .build();
+        final List<CommunicationEntity> groups = manager.aggregate(byName).toList();
+        assertThat(groups.size(), is(2));
+        assertThat(groups.get(0).find("name").orElseThrow().get(), is((Object) "Bob"));
+        assertThat(groups.get(0).find("persons").orElseThrow().get(Long.class), is(3L));
+        assertThat(groups.get(0).find("idSum").orElseThrow().get(Long.class), is(14L));
+        assertThat(groups.get(0).find("minId").orElseThrow().get(Long.class), is(2L));
+        assertThat(groups.get(0).find("maxId").orElseThrow().get(Long.class), is(7L));
+        assertThat(groups.get(1).find("name").orElseThrow().get(), is((Object) "Carol"));
+
+        final PersistenceAggregateQuery distinctNames = PersistenceAggregateQuery.builder("Person")
+                .groupBy("name").countDistinct("id", "ids").sort(Sort.asc("name")).build();
+        assertThat(manager.aggregate(distinctNames).map(result -> result.find("name").orElseThrow().get()).toList(),
+                contains("Alice", "Bob", "Carol", "Dave"));
+
+        final List<CommunicationEntity> jpql = manager.aggregate("Person",
+                "SELECT p.name AS name, AVG(p.id) AS average FROM Person p WHERE p.id > :id GROUP BY p.name ORDER BY p.name",
+                Map.of("id", 4L)).toList();
+        assertThat(jpql.stream().map(result -> result.find("0").orElseThrow().get()).toList(), contains("Bob", "Carol"));
+        assertThat(jpql.get(0).find("1").orElseThrow().get(Double.class), is(6.0));
+        assertThat("named by position, not by alias", jpql.get(0).contains("name"), is(false));
+
+        final List<CommunicationEntity> single = manager.aggregate("Person", "SELECT COUNT(p) FROM Person p",
+                Map.of()).toList();
+        assertThat(single.get(0).find("0").orElseThrow().get(Long.class), is(7L));
+    }
+
+    @Test
+    public void writeBehindCommitsSingleWritesInGroups() throws Exception {
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.WRITE_BEHIND_SIZE.get(), 3,
+                PersistenceConfigurations.WRITE_BEHIND_DELAY.get(), 50)));
+        final PersistenceQueryCache queryCache = new PersistenceQueryCache();
+        final PersistenceMetrics metrics = new PersistenceMetrics(queryCache, Duration.ZERO);
+        try (PersistenceDatabaseManager writeBehindManager = new PersistenceDatabaseManager(emf, queryCache,
+                options.newEntityCache(), options, null, metrics)) {
+            final List<CompletableFuture<CommunicationEntity>> inserts = LongStream.rangeClosed(5, 7)
+                    .mapToObj(id -> writeBehindManager.insertAsync(
+                            PersistenceEntityConverter.toCommunicationEntity("Person", new Person(id, "Person " + id)))
+                            .toCompletableFuture())
+                    .toList();
+            CompletableFuture.allOf(inserts.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+            final PersistenceMetrics.Snapshot insertCommits = metrics.snapshot("Person", PersistenceOperationListener.Operation.INSERT);
+            assertThat(insertCommits.count(), is(1L));
+            assertThat(insertCommits.rows(), is(3L));
+
+            writeBehindManager.update(
+                    CommunicationEntity.of("Person", List.of(Element.of("_id", 1L), Element.of("name", "Alicia"))));
+            assertThat("committed after the delay",
+                    metrics.snapshot("Person", PersistenceOperationListener.Operation.UPDATE).count(), is(1L));
+
+            final CompletableFuture<CommunicationEntity> duplicate = writeBehindManager.insertAsync(
+                    PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Duplicate")))
+                    .toCompletableFuture();
+            final CompletableFuture<CommunicationEntity> insert = writeBehindManager.insertAsync(
+                    PersistenceEntityConverter.toCommunicationEntity("Person", new Person(8, "Person 8")))
+                    .toCompletableFuture();
+            final CompletableFuture<CommunicationEntity> update = writeBehindManager.updateAsync(
+                    CommunicationEntity.of("Person", List.of(Element.of("_id", 2L), Element.of("name", "Robert"))))
+                    .toCompletableFuture();
+            Assertions.assertThrows(ExecutionException.class, () -> duplicate.get(10, TimeUnit.SECONDS));
+            assertThat("retried on its own after the group failed", toPerson(insert.get(10, TimeUnit.SECONDS)).getName(),
+                    is("Person 8"));
+            update.get(10, TimeUnit.SECONDS);
+            final PersistenceMetrics.Snapshot allInserts = metrics.snapshot("Person", PersistenceOperationListener.Operation.INSERT);
+            assertThat("the group and the duplicate failed", allInserts.failures(), is(2L));
+            assertThat(allInserts.rows(), is(4L));
+            final PersistenceMetrics.Snapshot allUpdates = metrics.snapshot("Person", PersistenceOperationListener.Operation.UPDATE);
+            assertThat("recorded as an update also in the failed group", allUpdates.failures(), is(1L));
+            assertThat(allUpdates.rows(), is(2L));
+        }
+        assertThat(names(SelectQuery.builder().from("Person").sort(Sort.asc("id")).build()),
+                contains("Alicia", "Robert", "Carol", "Dave", "Person 5", "Person 6", "Person 7", "Person 8"));
+    }
+
+    @Test
+    public void managersOfFactoryShareWriteBehind() throws Exception {
+        final List<Runnable> commits = new ArrayList<>();
+        final PersistenceBootstrap bootstrap = new PersistenceBootstrap("testReplicaPersistenceUnit",
+                () -> PersistenceUnits.of(Persistence.createEntityManagerFactory("testReplicaPersistenceUnit")));
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.BOOTSTRAP.get(), "lazy",
+                PersistenceConfigurations.ASYNC_EXECUTOR.get(), (Executor) commits::add,
+                PersistenceConfigurations.WRITE_BEHIND_SIZE.get(), 2,
+                PersistenceConfigurations.WRITE_BEHIND_DELAY.get(), 60000)));
+        final PersistenceDatabaseManager first;
+        try (PersistenceManagerFactory factory = new PersistenceManagerFactory(bootstrap, options)) {
+            first = (PersistenceDatabaseManager) factory.apply("testReplicaPersistenceUnit");
+            final PersistenceDatabaseManager second = (PersistenceDatabaseManager) factory.apply("testReplicaPersistenceUnit");
+            final CompletableFuture<CommunicationEntity> firstInsert = first.insertAsync(
+                    PersistenceEntityConverter.toCommunicationEntity("Person", new Person(1, "Alice"))).toCompletableFuture();
+            final CompletableFuture<CommunicationEntity> secondInsert = second.insertAsync(
+                    PersistenceEntityConverter.toCommunicationEntity("Person", new Person(2, "Bob"))).toCompletableFuture();
+            assertThat("not committed by the caller", secondInsert.isDone(), is(false));
+            assertThat("one group for both managers", commits.size(), is(1));
+
+            commits.remove(0).run();
+            assertThat(toPerson(firstInsert.get(10, TimeUnit.SECONDS)).getName(), is("Alice"));
+            assertThat(toPerson(secondInsert.get(10, TimeUnit.SECONDS)).getName(), is("Bob"));
+            final PersistenceMetrics.Snapshot inserts = factory.metrics()
+                    .snapshot("Person", PersistenceOperationListener.Operation.INSERT);
+            assertThat(inserts.count(), is(1L));
+            assertThat(inserts.rows(), is(2L));
+            second.close();
+            assertThat("still open after a manager is closed", first.count("Person"), is(2L));
+        }
+        final CompletableFuture<CommunicationEntity> closed = first.insertAsync(
+                PersistenceEntityConverter.toCommunicationEntity("Person", new Person(3, "Carol"))).toCompletableFuture();
+        final ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+                () -> closed.get(10, TimeUnit.SECONDS));
+        assertThat(failure.getCause() instanceof IllegalStateException, is(true));
+    }
+
+    @Test
+    public void expiredEntitiesAreNotSelectedAndArePurged() throws InterruptedException {
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.TTL_ATTRIBUTE.get(), "expiresAt",
+                PersistenceConfigurations.TTL_PURGE_INTERVAL.get(), 0)));
+        try (PersistenceDatabaseManager ttlManager = new PersistenceDatabaseManager(emf, new PersistenceQueryCache(), options)) {
+            ttlManager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Eve")),
+                    Duration.ofMillis(1));
+            ttlManager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(6, "Frank")),
+                    Duration.ofHours(1));
+            Thread.sleep(10);
+
+            assertThat(ttlManager.select(SelectQuery.builder().from("Person").sort(Sort.asc("id")).build())
+                    .map(PersistenceDatabaseManagerTest::toPerson)
+                    .map(Person::getName)
+                    .toList(), contains("Alice", "Bob", "Carol", "Dave", "Frank"));
+            assertThat(ttlManager.count(SelectQuery.builder().from("Person").build()), is(5L));
+            assertThat(ttlManager.select(SelectQuery.builder().from("Person")
+                    .where(CriteriaCondition.eq(Element.of("id", 5L))).build()).toList(), empty());
+            assertThat(ttlManager.select(SelectQuery.builder().from("Person")
+                    .where(CriteriaCondition.eq(Element.of("id", 6L))).build()).count(), is(1L));
+
+            assertThat(ttlManager.purgeExpired(), is(1L));
+            assertThat(ttlManager.purgeExpired(), is(0L));
+        }
+    }
+
+    @Test
+    public void managersOfFactoryShareOnePurger() throws InterruptedException {
+        final PersistenceBootstrap bootstrap = new PersistenceBootstrap("testReplicaPersistenceUnit",
+                () -> PersistenceUnits.of(Persistence.createEntityManagerFactory("testReplicaPersistenceUnit")));
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.BOOTSTRAP.get(), "lazy",
+                PersistenceConfigurations.TTL_ATTRIBUTE.get(), "expiresAt")));
+        try (PersistenceManagerFactory factory = new PersistenceManagerFactory(bootstrap, options)) {
+            factory.apply("testReplicaPersistenceUnit").close();
+            factory.apply("testReplicaPersistenceUnit");
+            factory.apply("testReplicaPersistenceUnit");
+            assertThat(purgerThreads(), is(1L));
+        }
+        for (int i = 0; i < 100 && purgerThreads() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat("stopped when the factory is closed", purgerThreads(), is(0L));
+    }
+
+    private static long purgerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("jnosql-jakarta-persistence-ttl-purger"))
+                .count();
+    }
+
+    @Test
+    public void readsAreRoutedToReplicasAndWritesToPrimary() {
+        final EntityManagerFactory replica = Persistence.createEntityManagerFactory("testReplicaPersistenceUnit");
+        try {
+            final PersistenceUnits units = new PersistenceUnits(emf, List.of(replica, emf),
+                    PersistenceUnits.Balancing.ROUND_ROBIN, Map.of());
+            try (PersistenceDatabaseManager routedManager = routedManager(units)) {
+                assertThat("read from the empty replica", routedManager.count("Person"), is(0L));
+                assertThat(routedManager.count("Person"), is(4L));
+                routedManager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Eve")));
+                assertThat(routedManager.count("Person"), is(0L));
+                assertThat(routedManager.count("Person"), is(5L));
+                assertThat("count query prepared for each unit", routedManager.queryCache().size(), is(2));
+            }
+
+            final PersistenceUnits leastOutstanding = new PersistenceUnits(emf, List.of(replica, emf),
+                    PersistenceUnits.Balancing.LEAST_OUTSTANDING, Map.of());
+            assertThat("a concurrent read uses the idle replica", leastOutstanding.read("Person",
+                    outer -> leastOutstanding.read("Person", inner -> inner != outer)), is(true));
+
+            final PersistenceUnits entityUnits = new PersistenceUnits(emf, List.of(),
+                    PersistenceUnits.Balancing.ROUND_ROBIN, Map.of("Person", replica));
+            try (PersistenceDatabaseManager routedManager = routedManager(entityUnits)) {
+                routedManager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(6, "Frank")));
+                assertThat(routedManager.count("Person"), is(1L));
+                assertThat(manager.count("Person"), is(5L));
+            }
+        } finally {
+            replica.close();
+        }
+    }
+
+    @Test
+    public void persistenceUnitsAreCreatedOnFirstUse() {
+        final AtomicInteger created = new AtomicInteger();
+        final PersistenceBootstrap bootstrap = new PersistenceBootstrap("testReplicaPersistenceUnit", () -> {
+            created.incrementAndGet();
+            return PersistenceUnits.of(Persistence.createEntityManagerFactory("testReplicaPersistenceUnit"));
+        });
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.BOOTSTRAP.get(), "lazy")));
+        try (PersistenceManagerFactory factory = new PersistenceManagerFactory(bootstrap, options)) {
+            final DatabaseManager lazyManager = factory.apply("testReplicaPersistenceUnit");
+            assertThat(lazyManager.name(), is("testReplicaPersistenceUnit"));
+            assertThat(created.get(), is(0));
+
+            final List<Long> counts = Stream.of(factory.apply("testReplicaPersistenceUnit"), lazyManager)
+                    .parallel()
+                    .map(databaseManager -> databaseManager.count("Person"))
+                    .toList();
+            assertThat(counts, contains(0L, 0L));
+            assertThat("created once for all managers", created.get(), is(1));
+        }
+    }
+
+    @Test
+    public void failedBootstrapIsRetriedAfterDelay() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicLong nanos = new AtomicLong();
+        final PersistenceBootstrap bootstrap = new PersistenceBootstrap("testReplicaPersistenceUnit", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("Database is down");
+            }
+            return PersistenceUnits.of(Persistence.createEntityManagerFactory("testReplicaPersistenceUnit"));
+        }, nanos::get);
+        try (bootstrap) {
+            Assertions.assertThrows(IllegalStateException.class, bootstrap::units);
+            Assertions.assertThrows(IllegalStateException.class, bootstrap::units);
+            assertThat("not retried before the delay", attempts.get(), is(1));
+
+            nanos.addAndGet(PersistenceBootstrap.INITIAL_RETRY_DELAY.toNanos());
+            Assertions.assertThrows(IllegalStateException.class, bootstrap::units);
+            assertThat(attempts.get(), is(2));
+            nanos.addAndGet(PersistenceBootstrap.INITIAL_RETRY_DELAY.toNanos());
+            Assertions.assertThrows(IllegalStateException.class, bootstrap::units);
+            assertThat("the delay doubles", attempts.get(), is(2));
+
+            nanos.addAndGet(PersistenceBootstrap.INITIAL_RETRY_DELAY.toNanos());
+            assertThat(bootstrap.units().primary().getName(), is("testReplicaPersistenceUnit"));
+            assertThat(bootstrap.isCreated(), is(true));
+            assertThat(attempts.get(), is(3));
+        }
+    }
+
+    @Test
+    public void exportWithoutEntities() throws IOException {
+        manager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "Smith, \"Jr\"")));
+        final ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        final long rows = manager.export(SelectQuery.builder("id", "name").from("Person")
+                .where(CriteriaCondition.gte(Element.of("id", 4L)))
+                .sort(Sort.asc("id"))
+                .build(), Channels.newChannel(csv), PersistenceExportFormat.CSV);
+        assertThat(rows, is(2L));
+        assertThat(csv.toString(StandardCharsets.UTF_8), is("id,name\r\n4,Dave\r\n5,\"Smith, \"\"Jr\"\"\"\r\n"));
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        manager.export(SelectQuery.builder("name").from("Person").where(CriteriaCondition.eq(Element.of("id", 1L))).build(),
+                Channels.newChannel(binary), PersistenceExportFormat.BINARY);
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(binary.toByteArray()));
+        assertThat(input.readInt(), is(1));
+        assertThat(input.readInt(), is(4));
+        assertThat(new String(input.readNBytes(4), StandardCharsets.UTF_8), is("name"));
+        assertThat(input.readByte(), is((byte) 4));
+        assertThat(input.readInt(), is(5));
+        assertThat(new String(input.readNBytes(5), StandardCharsets.UTF_8), is("Alice"));
+        assertThat(input.available(), is(0));
+
+        final ByteArrayOutputStream allColumns = new ByteArrayOutputStream();
+        manager.export(SelectQuery.builder().from("Person").where(CriteriaCondition.eq(Element.of("id", 2L))).build(),
+                Channels.newChannel(allColumns), PersistenceExportFormat.CSV);
+        assertThat(allColumns.toString(StandardCharsets.UTF_8), is("id,expiresAt,name\r\n2,,Bob\r\n"));
+    }
+
+    @Test
+    public void exportReadsRowsInWindows() {
+        manager.insert(PersistenceEntityConverter.toCommunicationEntity("Person", new Person(5, "")));
+        final PersistenceQueryCache queryCache = new PersistenceQueryCache();
+        final PersistenceOptions options = new PersistenceOptions(Settings.of(Map.of(
+                PersistenceConfigurations.EXPORT_WINDOW_SIZE.get(), 2)));
+        try (PersistenceDatabaseManager windowedManager = new PersistenceDatabaseManager(emf, queryCache, options)) {
+            final ByteArrayOutputStream byId = new ByteArrayOutputStream();
+            assertThat(windowedManager.export(SelectQuery.builder("name").from("Person").build(),
+                    Channels.newChannel(byId), PersistenceExportFormat.CSV), is(5L));
+            assertThat("empty string quoted", byId.toString(StandardCharsets.UTF_8),
+                    is("name\r\nAlice\r\nBob\r\nCarol\r\nDave\r\n\"\"\r\n"));
+            assertThat("the first window and windows after an id", queryCache.size(), is(2));
+
+            final ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+            assertThat(windowedManager.export(SelectQuery.builder("id").from("Person")
+                    .where(CriteriaCondition.gt("id", 1L)).sort(Sort.desc("name")).limit(3).build(),
+                    Channels.newChannel(sorted), PersistenceExportFormat.CSV), is(3L));
+            assertThat(sorted.toString(StandardCharsets.UTF_8), is("id\r\n4\r\n3\r\n2\r\n"));
+        }
+    }
+
+    private static PersistenceDatabaseManager routedManager(PersistenceUnits units) {
+        final PersistenceOptions options = PersistenceOptions.defaults();
+        final PersistenceQueryCache queryCache = new PersistenceQueryCache();
+        return new PersistenceDatabaseManager(PersistenceBootstrap.of(units), queryCache, options.newEntityCache(), options, null, new PersistenceMetrics(queryCache, Duration.ZERO), null);
+    }
+
+    private static List<Long> pageIds(CursoredPage<CommunicationEntity> page) {
+        return page.content().stream().map(PersistenceDatabaseManagerTest::toPerson).map(Person::getId).toList();
+    }
+
+    private List<String> names(SelectQuery query) {
+        return manager.select(query)
+                .map(PersistenceDatabaseManagerTest::toPerson)
+                .map(Person::getName)
+                .toList();
+    }
+
+    private static Person toPerson(CommunicationEntity entity) {
+        return (Person) entity.elements().get(0).get();
+    }
+
+}